@@ -0,0 +1,108 @@
+package com.jayway.columnlist;
+
+/**
+ * A binary min-heap of column indices, ordered by a key that is read from the
+ * columns. The heap knows where every column is, so when the key of one column
+ * changes {@link #update(int)} restores the order in O(log c) without allocating.
+ * Ties are broken by column index, so the leftmost column comes first.
+ * <p/>
+ * Adding the same amount to the keys of all columns doesn't change the order, so
+ * nothing needs to be updated when the whole list is scrolled.
+ */
+abstract class ColumnHeap {
+
+    // The column at each slot of the heap
+    private final int[] mHeap;
+
+    // The slot of each column
+    private final int[] mSlots;
+
+    public ColumnHeap(final int numberOfColumns) {
+        mHeap = new int[numberOfColumns];
+        mSlots = new int[numberOfColumns];
+        for (int i = 0; i < numberOfColumns; i++) {
+            mHeap[i] = i;
+            mSlots[i] = i;
+        }
+    }
+
+    /**
+     * Returns the key of the column, the column with the lowest key comes first.
+     */
+    protected abstract int getKey(int column);
+
+    /**
+     * Returns the column with the lowest key.
+     */
+    public int peek() {
+        return mHeap[0];
+    }
+
+    /**
+     * Moves the column to its place after its key has changed.
+     */
+    public void update(final int column) {
+        int slot = mSlots[column];
+        if (!siftUp(slot)) {
+            siftDown(slot);
+        }
+    }
+
+    /**
+     * Restores the order after the keys of any number of columns have changed.
+     */
+    public void rebuild() {
+        for (int slot = mHeap.length / 2 - 1; slot >= 0; slot--) {
+            siftDown(slot);
+        }
+    }
+
+    private boolean siftUp(int slot) {
+        int column = mHeap[slot];
+        boolean moved = false;
+        while (slot > 0) {
+            int parentSlot = (slot - 1) / 2;
+            int parent = mHeap[parentSlot];
+            if (!isBefore(column, parent)) {
+                break;
+            }
+            place(parent, slot);
+            slot = parentSlot;
+            moved = true;
+        }
+        place(column, slot);
+        return moved;
+    }
+
+    private void siftDown(int slot) {
+        int column = mHeap[slot];
+        int size = mHeap.length;
+        while (true) {
+            int childSlot = slot * 2 + 1;
+            if (childSlot >= size) {
+                break;
+            }
+            if (childSlot + 1 < size && isBefore(mHeap[childSlot + 1], mHeap[childSlot])) {
+                childSlot++;
+            }
+            int child = mHeap[childSlot];
+            if (!isBefore(child, column)) {
+                break;
+            }
+            place(child, slot);
+            slot = childSlot;
+        }
+        place(column, slot);
+    }
+
+    private void place(final int column, final int slot) {
+        mHeap[slot] = column;
+        mSlots[column] = slot;
+    }
+
+    private boolean isBefore(final int column, final int otherColumn) {
+        int key = getKey(column);
+        int otherKey = getKey(otherColumn);
+        return key < otherKey || (key == otherKey && column < otherColumn);
+    }
+}
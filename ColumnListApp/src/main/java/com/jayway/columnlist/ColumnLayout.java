@@ -0,0 +1,1630 @@
+package com.jayway.columnlist;
+
+import java.util.ArrayList;
+
+/**
+ * The layout, fill and recycle algorithm of {@link ColumnListView}: which items are
+ * in the list, where they are in their columns, and which views are kept to be
+ * reused. It is plain Java, so that it can also be benchmarked and have scrolls
+ * replayed against it on a JVM. The adapter and the views of the items are reached
+ * through a {@link Host}, and a view can be anything that can be bound, measured
+ * and laid out.
+ * <p/>
+ * The items that are shown are kept per column, from the top, with the top and
+ * height that their views were laid out with. Coordinates are those of the views,
+ * so when the list scrolls by its scroll offset rather than by moving its items,
+ * the part of the items that is shown starts at the scroll offset.
+ *
+ * @param <V> the type of the item views
+ */
+class ColumnLayout<V> {
+
+    /**
+     * The adapter and the views of the list that is laid out.
+     *
+     * @param <V> the type of the item views
+     */
+    interface Host<V> {
+
+        // Returned when the height of an item can't be known without measuring its view
+        int UNKNOWN_HEIGHT = -1;
+
+        int getItemCount();
+
+        int getItemViewType(int position);
+
+        long getItemId(int position);
+
+        boolean hasStableIds();
+
+        /**
+         * Returns true if the heights of the items may be known without binding them.
+         */
+        boolean hasItemHeights();
+
+        /**
+         * Returns the height of the item when it is measured with the column width,
+         * if it is known without binding it, or {@link #UNKNOWN_HEIGHT}.
+         */
+        int getItemHeight(int position, int columnWidth);
+
+        /**
+         * Binds the item to a view, reusing the convert view, which may be null, if
+         * it can.
+         */
+        V getView(int position, int viewType, V convertView);
+
+        /**
+         * Updates what the view shows that belongs to the list rather than to the
+         * item, such as whether it is checked. Called whenever the view of an item
+         * is put in the list or bound again.
+         */
+        void updateItemState(V view, int position);
+
+        void addView(V view);
+
+        void removeView(V view);
+
+        /**
+         * Returns true if the view has requested a layout or has not been measured
+         * for the width.
+         */
+        boolean needsMeasure(V view, int width);
+
+        /**
+         * Measures the view for the width and returns its height. The known height is
+         * the height that the item had the last time it was measured, or that the
+         * adapter gives for it, which the view may be measured at exactly rather than
+         * working it out again, or {@link #UNKNOWN_HEIGHT}.
+         */
+        int measure(V view, int width, int knownHeight);
+
+        int getMeasuredHeight(V view);
+
+        void layout(V view, int left, int top, int right, int bottom);
+
+        void offsetTopAndBottom(V view, int offset);
+
+        /**
+         * Scrolls the list, when it scrolls by its scroll offset.
+         */
+        void scrollTo(int scrollY);
+    }
+
+    // An item that is shown in the list
+    static class Item<V> {
+
+        // Position in the adapter for this item
+        int mPosition;
+
+        // The view of the item
+        V mView;
+
+        // The id for this item
+        long mId;
+
+        // The view type of the view
+        int mViewType;
+
+        // The top that the view was laid out at
+        int mTop;
+
+        // The height that the view was laid out with
+        int mHeight;
+    }
+
+    // Represents the visible part of a column
+    static class Column<V> {
+
+        // The items that makes up the column
+        final ArrayList<Item<V>> mItems = new ArrayList<Item<V>>();
+
+        // The left position of the column
+        int mLeft;
+
+        // The top coordinate of the column
+        int mTop;
+
+        // The bottom coordinate of the column
+        int mBottom;
+
+        // The index of the column in the layout model
+        int mIndex;
+    }
+
+    // Views that are not in the list, kept by a key of their item so that they can be
+    // used as they are when the item is added to the list
+    private static class KeyedScrap<V> {
+        long[] mKeys = new long[16];
+        int[] mViewTypes = new int[16];
+        Object[] mViews = new Object[16];
+        int mSize;
+
+        void put(final long key, final int viewType, final V view) {
+            if (mSize == mKeys.length) {
+                long[] keys = new long[mSize * 2];
+                System.arraycopy(mKeys, 0, keys, 0, mSize);
+                mKeys = keys;
+                int[] viewTypes = new int[mSize * 2];
+                System.arraycopy(mViewTypes, 0, viewTypes, 0, mSize);
+                mViewTypes = viewTypes;
+                Object[] views = new Object[mSize * 2];
+                System.arraycopy(mViews, 0, views, 0, mSize);
+                mViews = views;
+            }
+            mKeys[mSize] = key;
+            mViewTypes[mSize] = viewType;
+            mViews[mSize] = view;
+            mSize++;
+        }
+
+        int indexOf(final long key) {
+            for (int i = 0; i < mSize; i++) {
+                if (mKeys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @SuppressWarnings("unchecked")
+        V remove(final int index) {
+            V view = (V) mViews[index];
+            mSize--;
+            mKeys[index] = mKeys[mSize];
+            mViewTypes[index] = mViewTypes[mSize];
+            mViews[index] = mViews[mSize];
+            mViews[mSize] = null;
+            return view;
+        }
+    }
+
+    // The default amount of resistance when dragging outside of limits
+    static final float DEFAULT_RUBBERBAND_FACTOR = 0.4f;
+
+    // Used as the laid out ids when there are none
+    private static final long[] NO_IDS = new long[0];
+
+    // The most positions whose heights are added to the scroll range estimate per
+    // call, so that working out the scroll bar never holds up a frame
+    private static final int MAX_ESTIMATED_POSITIONS = 1000;
+
+    private final Host<V> mHost;
+
+    // The list of columns
+    private final ArrayList<Column<V>> mColumns = new ArrayList<Column<V>>();
+
+    // Where all items that have been laid out were placed
+    private ColumnLayoutModel mLayoutModel;
+
+    // The columns ordered by bottom, the one with the highest bottom first
+    private final ColumnHeap mColumnsByBottom;
+
+    // The columns ordered by top, the one with the lowest top first
+    private final ColumnHeap mColumnsByTop;
+
+    // The columns ordered by the position of their first item
+    private final ColumnHeap mColumnsByFirstPosition;
+
+    // The columns ordered by the position of their last item, the highest first
+    private final ColumnHeap mColumnsByLastPosition;
+
+    // The bottom of each column in the layout model when the positions after it, up
+    // to mEstimateTo, are added with the heights that the adapter gives for them
+    private final int[] mEstimatedBottoms;
+
+    // The columns ordered by estimated bottom, the one with the highest bottom first
+    private final ColumnHeap mColumnsByEstimatedBottom;
+
+    // The number of positions in the layout model when the estimate was started, or
+    // -1 if it has to be started again
+    private int mEstimateFrom = -1;
+
+    // The position after the last one in the estimated bottoms
+    private int mEstimateTo = -1;
+
+    // Cache of item views
+    private final RecycleBin<V> mRecycleBin = new RecycleBin<V>();
+
+    // Items that are not in the list, kept to be reused
+    private final ArrayList<Item<V>> mItemPool = new ArrayList<Item<V>>();
+
+    // Views of items that may have moved in a data change, kept by item id
+    private final KeyedScrap<V> mStableIdScrap = new KeyedScrap<V>();
+
+    // Views that have been bound and measured ahead of scrolling, kept by position
+    private final KeyedScrap<V> mPrefetchedViews = new KeyedScrap<V>();
+
+    // The ids of the positions in the layout model, kept when the adapter has stable
+    // ids so that the first position that changed can be found after a data change
+    private long[] mLaidOutIds = NO_IDS;
+
+    // The measured heights of items, also of the items that are not on screen
+    private final MeasureCache mMeasureCache = new MeasureCache();
+
+    // True if views removed from the list should be kept by item id instead of recycled
+    private boolean mKeepViewsById;
+
+    // The padding between columns
+    private final int mPadding;
+
+    // The width of a column
+    private int mColumnWidth;
+
+    // The height of the list
+    private int mHeight;
+
+    // The padding above the items
+    private int mPaddingTop;
+
+    // The padding below the items
+    private int mPaddingBottom;
+
+    // The scroll offset of the list, only changed when it scrolls by its scroll offset
+    private int mScrollY;
+
+    // True if the list scrolls by changing its scroll offset instead of moving the items
+    private boolean mScrollByOffset;
+
+    // True if overscoll is allowed
+    private boolean mOverscroll = true;
+
+    // The amount of resistance when dragging outside of limits
+    private float mRubberbandFactor = DEFAULT_RUBBERBAND_FACTOR;
+
+    // The top of the list when the drag started
+    private int mListTopAtDragStart;
+
+    // The distance above and below the list that is kept laid out
+    private int mCacheExtent;
+
+    // The distance above the list that is filled ahead of a fling
+    private int mFillAheadAbove;
+
+    // The distance below the list that is filled ahead of a fling
+    private int mFillAheadBelow;
+
+    // The time per frame that may be spent adding items that are not on screen yet, in nanoseconds
+    private long mFrameBudgetNanos;
+
+    // The time when the budget of the current frame runs out
+    private long mFillDeadline = Long.MAX_VALUE;
+
+    // The number of items per column to bind ahead of scrolling
+    private int mPrefetchCount;
+
+    // The direction of the last scroll, 1 towards later positions and -1 towards earlier
+    private int mScrollDirection = 1;
+
+    // The metrics of the current frame, if they are measured
+    private FrameMetrics mFrameMetrics;
+
+    ColumnLayout(final Host<V> host, final int numberOfColumns, final int padding) {
+        mHost = host;
+        mPadding = padding;
+        mLayoutModel = new ColumnLayoutModel(numberOfColumns);
+        mLayoutModel.setPadding(padding);
+        for (int i = 0; i < numberOfColumns; i++) {
+            Column<V> column = new Column<V>();
+            column.mIndex = i;
+            mColumns.add(column);
+        }
+
+        mColumnsByBottom = new ColumnHeap(numberOfColumns) {
+            @Override
+            protected int getKey(final int column) {
+                return mColumns.get(column).mBottom;
+            }
+        };
+        mColumnsByTop = new ColumnHeap(numberOfColumns) {
+            @Override
+            protected int getKey(final int column) {
+                return -mColumns.get(column).mTop;
+            }
+        };
+        mColumnsByFirstPosition = new ColumnHeap(numberOfColumns) {
+            @Override
+            protected int getKey(final int column) {
+                ArrayList<Item<V>> items = mColumns.get(column).mItems;
+                return items.isEmpty() ? Integer.MAX_VALUE : items.get(0).mPosition;
+            }
+        };
+        mColumnsByLastPosition = new ColumnHeap(numberOfColumns) {
+            @Override
+            protected int getKey(final int column) {
+                ArrayList<Item<V>> items = mColumns.get(column).mItems;
+                return items.isEmpty() ? Integer.MAX_VALUE : -items.get(items.size() - 1).mPosition;
+            }
+        };
+        mEstimatedBottoms = new int[numberOfColumns];
+        mColumnsByEstimatedBottom = new ColumnHeap(numberOfColumns) {
+            @Override
+            protected int getKey(final int column) {
+                return mEstimatedBottoms[column];
+            }
+        };
+    }
+
+    // Updates the column orders after a column has changed
+    private void updateColumnHeaps(final Column<V> column) {
+        mColumnsByBottom.update(column.mIndex);
+        mColumnsByTop.update(column.mIndex);
+        mColumnsByFirstPosition.update(column.mIndex);
+        mColumnsByLastPosition.update(column.mIndex);
+    }
+
+    // Updates the column orders after any number of columns have changed
+    private void rebuildColumnHeaps() {
+        mColumnsByBottom.rebuild();
+        mColumnsByTop.rebuild();
+        mColumnsByFirstPosition.rebuild();
+        mColumnsByLastPosition.rebuild();
+    }
+
+    public ColumnLayoutModel getLayoutModel() {
+        return mLayoutModel;
+    }
+
+    /**
+     * Replaces the layout model, such as with one that was loaded from a file. The
+     * model must have as many columns as the list.
+     */
+    public void setLayoutModel(final ColumnLayoutModel layoutModel) {
+        mLayoutModel = layoutModel;
+        clearScrollRangeEstimate(0);
+    }
+
+    public RecycleBin<V> getRecycleBin() {
+        return mRecycleBin;
+    }
+
+    public MeasureCache getMeasureCache() {
+        return mMeasureCache;
+    }
+
+    public int getNumberOfColumns() {
+        return mColumns.size();
+    }
+
+    public Column<V> getColumn(final int index) {
+        return mColumns.get(index);
+    }
+
+    public int getPadding() {
+        return mPadding;
+    }
+
+    public int getColumnWidth() {
+        return mColumnWidth;
+    }
+
+    /**
+     * Sets the width of the columns and where the first column starts. When the
+     * width changes the items get other heights, so everything that has been
+     * measured and laid out is forgotten.
+     */
+    public void setColumnDimensions(final int columnWidth, final int left) {
+        if (columnWidth != mColumnWidth) {
+            mMeasureCache.clear();
+            mLayoutModel.clear();
+            clearScrollRangeEstimate(0);
+            mColumnWidth = columnWidth;
+        }
+        int columnLeft = left + mPadding;
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            column.mLeft = columnLeft;
+            columnLeft += mColumnWidth + mPadding;
+        }
+    }
+
+    /**
+     * Sets the height of the list and the padding above and below the items.
+     */
+    public void setSize(final int height, final int paddingTop, final int paddingBottom) {
+        mHeight = height;
+        mPaddingTop = paddingTop;
+        mPaddingBottom = paddingBottom;
+    }
+
+    /**
+     * Sets whether the list is scrolled by changing its scroll offset, rather than by
+     * moving the items, and scrolls it back to 0.
+     */
+    public void setScrollByOffset(final boolean scrollByOffset) {
+        mScrollByOffset = scrollByOffset;
+        scrollTo(0);
+    }
+
+    public void setOverscroll(final boolean overscroll) {
+        mOverscroll = overscroll;
+    }
+
+    public boolean isOverscrollEnabled() {
+        return mOverscroll;
+    }
+
+    public void setRubberbandFactor(final float rubberbandFactor) {
+        mRubberbandFactor = rubberbandFactor;
+    }
+
+    public void setFrameBudgetNanos(final long frameBudgetNanos) {
+        mFrameBudgetNanos = frameBudgetNanos;
+    }
+
+    public long getFrameBudgetNanos() {
+        return mFrameBudgetNanos;
+    }
+
+    /**
+     * Sets the time until which items outside of the list may be added. Items that
+     * are needed to cover the list are always added.
+     */
+    public void setFillDeadline(final long fillDeadline) {
+        mFillDeadline = fillDeadline;
+    }
+
+    public void setPrefetchCount(final int prefetchCount) {
+        mPrefetchCount = Math.max(0, prefetchCount);
+        if (mPrefetchCount == 0) {
+            recyclePrefetchedViews();
+        }
+    }
+
+    public int getPrefetchCount() {
+        return mPrefetchCount;
+    }
+
+    public void setCacheExtent(final int cacheExtent) {
+        mCacheExtent = Math.max(0, cacheExtent);
+    }
+
+    public int getCacheExtent() {
+        return mCacheExtent;
+    }
+
+    public void setKeepViewsById(final boolean keepViewsById) {
+        mKeepViewsById = keepViewsById;
+    }
+
+    /**
+     * Sets the metrics that the time spent scrolling and recycling is added to, or
+     * null to not measure it.
+     */
+    public void setFrameMetrics(final FrameMetrics frameMetrics) {
+        mFrameMetrics = frameMetrics;
+    }
+
+    /**
+     * Returns the direction of the last scroll, 1 towards later positions and -1
+     * towards earlier positions.
+     */
+    public int getScrollDirection() {
+        return mScrollDirection;
+    }
+
+    /**
+     * Removes all items and forgets everything that has been laid out and measured,
+     * like when the adapter is replaced.
+     */
+    public void clear() {
+        clearAllViews();
+        recyclePrefetchedViews();
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            column.mTop = 0;
+            column.mBottom = 0;
+        }
+        rebuildColumnHeaps();
+        scrollTo(0);
+        mLayoutModel.clear();
+        clearScrollRangeEstimate(0);
+        mRecycleBin.clear();
+        mMeasureCache.clear();
+    }
+
+    private void clearAllViews() {
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            for (int j = 0; j < column.mItems.size(); j++) {
+                Item<V> item = column.mItems.get(j);
+                removeItemView(item);
+                releaseItem(item);
+            }
+            column.mItems.clear();
+        }
+    }
+
+    private void scrollTo(final int scrollY) {
+        mScrollY = scrollY;
+        mHost.scrollTo(scrollY);
+    }
+
+    /**
+     * Lays out the list so that the item at the given position is the given distance
+     * below the top of the list.
+     */
+    public void layoutFromPosition(final int position, final int offset) {
+        // keep all views that are taken off screen, most of them are needed again
+        boolean capped = mRecycleBin.isCapped();
+        mRecycleBin.setCapped(false);
+        layoutFromPositionUncapped(position, offset);
+        mRecycleBin.setCapped(capped);
+    }
+
+    private void layoutFromPositionUncapped(int position, final int offset) {
+        clearAllViews();
+        recyclePrefetchedViews();
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            column.mTop = 0;
+            column.mBottom = 0;
+        }
+        rebuildColumnHeaps();
+
+        int count = mHost.getItemCount();
+        if (count == 0) {
+            return;
+        }
+        position = Math.max(0, Math.min(position, count - 1));
+        layoutModelUpTo(position);
+
+        // place the first item below the top of the list in each column, the rest of
+        // the list is then filled from those
+        int listTop = mLayoutModel.getTop(position) - mPadding - offset;
+        if (mScrollByOffset) {
+            // the items are laid out where they are in the layout model
+            scrollTo(listTop);
+        }
+        listTop -= mScrollY;
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            int firstPosition = mLayoutModel.findInColumn(column.mIndex, listTop);
+            if (firstPosition != ColumnLayoutModel.NO_POSITION) {
+                column.mTop = mLayoutModel.getTop(firstPosition) - mPadding - listTop;
+                column.mBottom = column.mTop;
+                addItemToColumnDown(column, getItemFromAdapter(firstPosition));
+            } else {
+                // the column ends above the list top
+                column.mTop = mLayoutModel.getColumnBottom(column.mIndex) - listTop;
+                column.mBottom = column.mTop;
+            }
+        }
+        rebuildColumnHeaps();
+        fillList();
+
+        // don't leave a gap below the last item
+        if (!isFirstItemShowing() && isLastItemShowing() && getListTop() < getBottomSnapPos()) {
+            scrollListTo(getBottomSnapPos());
+        }
+    }
+
+    /**
+     * Throws away the layout of the given position and everything after it, since
+     * items have been inserted, removed or moved there. The first item on screen has
+     * the given position after the change, and stays where it is on screen.
+     */
+    public void relayoutFrom(final int position, final int firstPosition) {
+        Item<V> firstItem = getFirstVisibleItem();
+        if (firstItem == null) {
+            mLayoutModel.truncate(position);
+        } else if (position <= firstItem.mPosition) {
+            // everything on screen is affected, lay out the list again with the first
+            // item at its new position where it is now, keeping the views of the items
+            // that only moved if they can be told apart by id
+            int offset = getOffset(firstItem);
+            mLayoutModel.truncate(position);
+            boolean keepViewsById = mKeepViewsById;
+            mKeepViewsById = mHost.hasStableIds();
+            layoutFromPosition(firstPosition, offset);
+            mKeepViewsById = keepViewsById;
+        } else {
+            // keep the items above the position and let the rest be filled again, by
+            // the next layout pass, with the views of the items that are removed
+            mRecycleBin.setCapped(false);
+            int listTop = firstItem.mTop - mLayoutModel.getTop(firstItem.mPosition);
+            mLayoutModel.truncate(position);
+            for (int i = 0; i < mColumns.size(); i++) {
+                Column<V> column = mColumns.get(i);
+                while (!column.mItems.isEmpty() && column.mItems.get(column.mItems.size() - 1).mPosition >= position) {
+                    Item<V> item = column.mItems.remove(column.mItems.size() - 1);
+                    removeItemView(item);
+                    releaseItem(item);
+                }
+                if (column.mItems.isEmpty()) {
+                    column.mTop = listTop + mLayoutModel.getColumnBottom(column.mIndex);
+                    column.mBottom = column.mTop;
+                } else {
+                    Item<V> lastItem = column.mItems.get(column.mItems.size() - 1);
+                    column.mBottom = lastItem.mTop + lastItem.mHeight;
+                }
+            }
+            rebuildColumnHeaps();
+        }
+    }
+
+    /**
+     * Recycles the views that were kept by id through a data change but whose items
+     * were not shown again.
+     */
+    public void recycleStableIdScrap() {
+        while (mStableIdScrap.mSize > 0) {
+            int index = mStableIdScrap.mSize - 1;
+            int viewType = mStableIdScrap.mViewTypes[index];
+            mRecycleBin.put(viewType, mStableIdScrap.remove(index));
+        }
+    }
+
+    public Item<V> getFirstVisibleItem() {
+        ArrayList<Item<V>> items = mColumns.get(mColumnsByFirstPosition.peek()).mItems;
+        return items.isEmpty() ? null : items.get(0);
+    }
+
+    /**
+     * Returns the distance from the top of the list to the item, which the list is
+     * laid out from to keep the item where it is.
+     */
+    public int getOffset(final Item<V> item) {
+        return item.mTop - mPadding - mScrollY;
+    }
+
+    /**
+     * Returns the item at the position if it is in the list, or null.
+     */
+    public Item<V> findItem(final int position) {
+        if (position >= mLayoutModel.getCount()) {
+            return null;
+        }
+        ArrayList<Item<V>> items = mColumns.get(mLayoutModel.getColumn(position)).mItems;
+        for (int j = 0; j < items.size(); j++) {
+            Item<V> item = items.get(j);
+            if (item.mPosition == position) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the item at the given point of the list, or null.
+     */
+    public Item<V> findItemAt(final int x, final int y) {
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            if (x > column.mLeft && x < column.mLeft + mColumnWidth) {
+                for (int j = 0; j < column.mItems.size(); j++) {
+                    Item<V> item = column.mItems.get(j);
+                    if (item.mTop < y + mScrollY && item.mTop + item.mHeight > y + mScrollY) {
+                        return item;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public int getChildCount() {
+        int childCount = 0;
+        for (int i = 0; i < mColumns.size(); i++) {
+            childCount += mColumns.get(i).mItems.size();
+        }
+        return childCount;
+    }
+
+    /**
+     * Makes sure that all positions up to and including the given position have been
+     * laid out in the layout model. The positions whose heights are not known get
+     * the average height of the positions before them, and their real heights when
+     * they are shown, so no matter how far away the position is nothing is bound or
+     * measured other than the first row.
+     */
+    private void layoutModelUpTo(final int position) {
+        while (mLayoutModel.getCount() <= position) {
+            int nextPosition = mLayoutModel.getCount();
+            mLayoutModel.append(mLayoutModel.getNextColumn(), getItemHeight(nextPosition));
+            recordLaidOutIds(nextPosition);
+        }
+    }
+
+    // Returns the height of the item at the given position, asking the adapter if it
+    // knows it and using the height it was measured to before if it was. Otherwise
+    // the first row is measured, and the items after it are given the average height
+    private int getItemHeight(final int position) {
+        int height = mHost.getItemHeight(position, mColumnWidth);
+        if (height != Host.UNKNOWN_HEIGHT) {
+            return height;
+        }
+        int viewType = mHost.getItemViewType(position);
+        long key = getMeasureKey(position);
+        height = mMeasureCache.get(key, viewType);
+        if (height != MeasureCache.NO_HEIGHT) {
+            return height;
+        }
+        int laidOutCount = mLayoutModel.getCount();
+        if (laidOutCount >= mColumns.size()) {
+            return (int) (mLayoutModel.getTotalHeight() / laidOutCount);
+        }
+        V view = getView(position, viewType);
+        height = mHost.measure(view, mColumnWidth, Host.UNKNOWN_HEIGHT);
+        mRecycleBin.put(viewType, view);
+        mMeasureCache.put(key, viewType, height);
+        return height;
+    }
+
+    /**
+     * Remembers the ids of the positions in the layout model from the given position
+     * and on, if the adapter has stable ids.
+     */
+    public void recordLaidOutIds(final int fromPosition) {
+        if (!mHost.hasStableIds()) {
+            return;
+        }
+        int count = mLayoutModel.getCount();
+        if (mLaidOutIds.length < count) {
+            long[] ids = new long[Math.max(count, mLaidOutIds.length * 2)];
+            System.arraycopy(mLaidOutIds, 0, ids, 0, Math.min(fromPosition, mLaidOutIds.length));
+            mLaidOutIds = ids;
+        }
+        for (int position = fromPosition; position < count; position++) {
+            mLaidOutIds[position] = mHost.getItemId(position);
+        }
+    }
+
+    /**
+     * Returns the id that the position had when it was laid out, if the adapter has
+     * stable ids.
+     */
+    public long getLaidOutId(final int position) {
+        return mLaidOutIds[position];
+    }
+
+    /**
+     * Returns the key of the item at the given position in the measure cache.
+     */
+    public long getMeasureKey(final int position) {
+        return mHost.hasStableIds() ? mHost.getItemId(position) : position;
+    }
+
+    /**
+     * Forgets the measurements that are kept by position from the given position and
+     * on, after items have been inserted, removed or moved there.
+     */
+    public void clearPositionMeasurements(final int position) {
+        if (!mHost.hasStableIds()) {
+            mMeasureCache.removeFrom(position);
+        }
+    }
+
+    /**
+     * Binds all items that are shown again, and lays them out again from the top of
+     * each column. The items that are no longer in the adapter are removed.
+     */
+    public void reloadViews() {
+        int count = mHost.getItemCount();
+        mLayoutModel.truncate(count);
+
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            // remove the items that are no longer in the adapter
+            while (!column.mItems.isEmpty() && column.mItems.get(column.mItems.size() - 1).mPosition >= count) {
+                Item<V> item = column.mItems.remove(column.mItems.size() - 1);
+                removeItemView(item);
+                releaseItem(item);
+            }
+
+            int top = column.mTop + mPadding;
+            for (int j = 0; j < column.mItems.size(); j++) {
+                Item<V> item = column.mItems.get(j);
+                rebindItem(column, item, top);
+                top += item.mHeight + mPadding;
+            }
+            column.mBottom = top - mPadding;
+        }
+        rebuildColumnHeaps();
+    }
+
+    /**
+     * Loads new views for the items in the given range that are on screen, and moves
+     * the items below them in the column if their height changed.
+     */
+    public void rebindItems(final int start, final int end) {
+        // keep the layout of the items that are not on screen up to date as well, if
+        // the adapter knows their heights
+        for (int position = start; position < end && position < mLayoutModel.getCount(); position++) {
+            int height = mHost.getItemHeight(position, mColumnWidth);
+            if (height != Host.UNKNOWN_HEIGHT) {
+                mLayoutModel.setHeight(position, height);
+            }
+        }
+
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            int delta = 0;
+            for (int j = 0; j < column.mItems.size(); j++) {
+                Item<V> item = column.mItems.get(j);
+                if (delta != 0) {
+                    offsetItem(item, delta);
+                }
+                if (item.mPosition >= start && item.mPosition < end) {
+                    delta += rebindItem(column, item, item.mTop);
+                }
+            }
+            column.mBottom += delta;
+        }
+        rebuildColumnHeaps();
+    }
+
+    // Binds the item to the current data of the adapter and lays it out at the given top.
+    // The adapter gets the current view of the item to rebind and if it returns it, the
+    // view stays attached and is only measured and laid out again if needed.
+    // Returns the change in height of the item.
+    private int rebindItem(final Column<V> column, final Item<V> item, final int top) {
+        V oldView = item.mView;
+        int oldHeight = item.mHeight;
+        int viewType = mHost.getItemViewType(item.mPosition);
+        item.mId = mHost.getItemId(item.mPosition);
+
+        V convertView = viewType == item.mViewType ? oldView : mRecycleBin.get(viewType);
+        V view = mHost.getView(item.mPosition, viewType, convertView);
+        mHost.updateItemState(view, item.mPosition);
+
+        int height;
+        if (view == oldView) {
+            // changed layout params or content request a layout, otherwise the old
+            // measurement is still valid
+            boolean layoutRequested = mHost.needsMeasure(view, mColumnWidth);
+            height = measureItem(item);
+            if (layoutRequested || item.mTop != top || height != oldHeight) {
+                layoutItem(column, item, top, height);
+            }
+        } else {
+            mHost.removeView(oldView);
+            mRecycleBin.put(item.mViewType, oldView);
+            item.mViewType = viewType;
+            item.mView = view;
+
+            mHost.addView(view);
+            height = measureItem(item);
+            layoutItem(column, item, top, height);
+        }
+
+        mLayoutModel.setHeight(item.mPosition, height);
+        return height - oldHeight;
+    }
+
+    /**
+     * Measures the views of all items that are shown, unless they have already been
+     * measured for the column width and nothing in them has changed since.
+     */
+    public void measureItems() {
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            for (int j = 0; j < column.mItems.size(); j++) {
+                Item<V> item = column.mItems.get(j);
+                if (item.mView != null) {
+                    measureItem(item);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the list with items, only adding the items outside of it until the fill
+     * deadline.
+     */
+    public void fillList() {
+        fillListDown();
+        fillListUp();
+        if (alignColumnTops()) {
+            fillListDown();
+        }
+    }
+
+    // Lines up the tops of the columns with the first column once its first item, the
+    // first item of the list, is in the list. Positions that were laid out with an
+    // estimated height get their real height when they are shown, which can leave
+    // the first items of the columns at different tops, so the other columns are
+    // filled up to their first item and moved to the top of the first column.
+    // Returns true if a column was moved
+    private boolean alignColumnTops() {
+        Column<V> firstColumn = mColumns.get(0);
+        if (!isFirstItemShowing() || firstColumn.mTop <= getFillTop()) {
+            // the top of the list is not filled
+            return false;
+        }
+        boolean moved = false;
+        for (int i = 1; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            if (column.mItems.isEmpty()) {
+                continue;
+            }
+            int position = getNextPositionUp(column);
+            while (position != ColumnLayoutModel.NO_POSITION) {
+                addItemToColumnUp(column, getItemFromAdapter(position));
+                position = getNextPositionUp(column);
+            }
+            if (column.mTop == firstColumn.mTop) {
+                continue;
+            }
+            int delta = firstColumn.mTop - column.mTop;
+            column.mTop += delta;
+            column.mBottom += delta;
+            for (int j = 0; j < column.mItems.size(); j++) {
+                offsetItem(column.mItems.get(j), delta);
+            }
+            updateColumnHeaps(column);
+            moved = true;
+        }
+        return moved;
+    }
+
+    /**
+     * Fills the list, only adding the items outside of it for as long as the frame
+     * budget lasts.
+     */
+    public void fillListWithinBudget() {
+        mFillDeadline = System.nanoTime() + mFrameBudgetNanos;
+        fillList();
+    }
+
+    private void fillListDown() {
+        Column<V> column = getNextColumnDown();
+        while (column != null) {
+            if (column.mBottom >= getViewportBottom() && System.nanoTime() > mFillDeadline) {
+                // the list is covered, add the items ahead of the fling next frame
+                break;
+            }
+            Item<V> item = getItemFromAdapter(getNextPositionDown(column));
+            addItemToColumnDown(column, item);
+            column = getNextColumnDown();
+        }
+    }
+
+    private void fillListUp() {
+        Column<V> column = getNextColumnUp();
+        while (column != null) {
+            if (column.mTop <= getViewportTop() && System.nanoTime() > mFillDeadline) {
+                // the list is covered, add the items ahead of the fling next frame
+                break;
+            }
+            Item<V> item = getItemFromAdapter(getNextPositionUp(column));
+            addItemToColumnUp(column, item);
+            column = getNextColumnUp();
+        }
+    }
+
+    private Column<V> getNextColumnDown() {
+        Column<V> column = mColumns.get(mColumnsByBottom.peek());
+        if (column.mBottom >= getFillBottom()) {
+            return null;
+        }
+        if (getNextPositionDown(column) != ColumnLayoutModel.NO_POSITION) {
+            return column;
+        }
+        // the end of the adapter has been reached, but the other columns may still
+        // have items that have been laid out before
+        return findNextColumnDown();
+    }
+
+    private Column<V> findNextColumnDown() {
+        Column<V> nextColumn = null;
+        int highestBottom = getFillBottom();
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            if (column.mBottom < highestBottom && getNextPositionDown(column) != ColumnLayoutModel.NO_POSITION) {
+                highestBottom = column.mBottom;
+                nextColumn = column;
+            }
+        }
+        return nextColumn;
+    }
+
+    private Column<V> getNextColumnUp() {
+        Column<V> column = mColumns.get(mColumnsByTop.peek());
+        if (column.mTop <= getFillTop()) {
+            return null;
+        }
+        if (getNextPositionUp(column) != ColumnLayoutModel.NO_POSITION) {
+            return column;
+        }
+        // the first item of the column is the first item of the list, but the other
+        // columns may still have items above them
+        return findNextColumnUp();
+    }
+
+    private Column<V> findNextColumnUp() {
+        Column<V> nextColumn = null;
+        int lowestTop = getFillTop();
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            if (column.mTop > lowestTop && getNextPositionUp(column) != ColumnLayoutModel.NO_POSITION) {
+                lowestTop = column.mTop;
+                nextColumn = column;
+            }
+        }
+        return nextColumn;
+    }
+
+    // Returns the position that should be added below the last item of the column
+    private int getNextPositionDown(final Column<V> column) {
+        if (!column.mItems.isEmpty()) {
+            int lastPosition = column.mItems.get(column.mItems.size() - 1).mPosition;
+            int nextPosition = mLayoutModel.getNextInColumn(lastPosition);
+            if (nextPosition != ColumnLayoutModel.NO_POSITION) {
+                return nextPosition;
+            }
+        }
+
+        // the column is at the end of what has been laid out, so it gets the next new position
+        int position = mLayoutModel.getCount();
+        return position < mHost.getItemCount() ? position : ColumnLayoutModel.NO_POSITION;
+    }
+
+    // Returns the position that should be added above the first item of the column
+    private int getNextPositionUp(final Column<V> column) {
+        if (column.mItems.isEmpty()) {
+            return mLayoutModel.getLastInColumn(column.mIndex);
+        }
+        return mLayoutModel.getPreviousInColumn(column.mItems.get(0).mPosition);
+    }
+
+    /**
+     * Returns the last position in the list, or {@link ColumnLayoutModel#NO_POSITION}
+     * if it is empty.
+     */
+    public int getLastVisiblePosition() {
+        ArrayList<Item<V>> items = mColumns.get(mColumnsByLastPosition.peek()).mItems;
+        return items.isEmpty() ? ColumnLayoutModel.NO_POSITION : items.get(items.size() - 1).mPosition;
+    }
+
+    /**
+     * Returns the first position in the list, or {@link ColumnLayoutModel#NO_POSITION}
+     * if it is empty.
+     */
+    public int getFirstVisiblePosition() {
+        ArrayList<Item<V>> items = mColumns.get(mColumnsByFirstPosition.peek()).mItems;
+        return items.isEmpty() ? ColumnLayoutModel.NO_POSITION : items.get(0).mPosition;
+    }
+
+    /**
+     * Returns the position of the first item in the column that is on screen, or
+     * {@link ColumnLayoutModel#NO_POSITION} if there is none.
+     */
+    public int getFirstVisiblePosition(final int column) {
+        ArrayList<Item<V>> items = mColumns.get(column).mItems;
+        for (int j = 0; j < items.size(); j++) {
+            Item<V> item = items.get(j);
+            if (item.mTop >= getViewportBottom()) {
+                break;
+            }
+            if (item.mTop + item.mHeight > getViewportTop()) {
+                return item.mPosition;
+            }
+        }
+        return ColumnLayoutModel.NO_POSITION;
+    }
+
+    /**
+     * Returns the position of the last item in the column that is on screen, or
+     * {@link ColumnLayoutModel#NO_POSITION} if there is none.
+     */
+    public int getLastVisiblePosition(final int column) {
+        ArrayList<Item<V>> items = mColumns.get(column).mItems;
+        for (int j = items.size() - 1; j >= 0; j--) {
+            Item<V> item = items.get(j);
+            if (item.mTop + item.mHeight <= getViewportTop()) {
+                break;
+            }
+            if (item.mTop < getViewportBottom()) {
+                return item.mPosition;
+            }
+        }
+        return ColumnLayoutModel.NO_POSITION;
+    }
+
+    private Item<V> obtainItem() {
+        int size = mItemPool.size();
+        return size == 0 ? new Item<V>() : mItemPool.remove(size - 1);
+    }
+
+    // Puts an item that has been removed from the list back in the pool
+    private void releaseItem(final Item<V> item) {
+        item.mView = null;
+        mItemPool.add(item);
+    }
+
+    private Item<V> getItemFromAdapter(final int position) {
+        Item<V> item = obtainItem();
+        item.mViewType = mHost.getItemViewType(position);
+        item.mPosition = position;
+        item.mId = mHost.getItemId(position);
+
+        if (mStableIdScrap.mSize > 0) {
+            // reuse the view as it is if the item was on screen before the data change
+            int index = mStableIdScrap.indexOf(item.mId);
+            if (index >= 0 && mStableIdScrap.mViewTypes[index] == item.mViewType) {
+                item.mView = mStableIdScrap.remove(index);
+            }
+        }
+        if (item.mView == null && mPrefetchedViews.mSize > 0) {
+            // use the view if it has been bound ahead of time
+            int index = mPrefetchedViews.indexOf(position);
+            if (index >= 0 && mPrefetchedViews.mViewTypes[index] == item.mViewType) {
+                item.mView = mPrefetchedViews.remove(index);
+            }
+        }
+        if (item.mView == null) {
+            item.mView = getView(position, item.mViewType);
+        }
+        mHost.updateItemState(item.mView, position);
+        return item;
+    }
+
+    private V getView(final int position, final int viewType) {
+        return mHost.getView(position, viewType, mRecycleBin.get(viewType));
+    }
+
+    private void addItemToColumnDown(final Column<V> column, final Item<V> item) {
+        mHost.addView(item.mView);
+        int height = measureItem(item);
+        column.mItems.add(item);
+
+        if (item.mPosition == mLayoutModel.getCount()) {
+            mLayoutModel.append(column.mIndex, height);
+            recordLaidOutIds(item.mPosition);
+        } else {
+            mLayoutModel.setHeight(item.mPosition, height);
+        }
+
+        int top = column.mBottom + mPadding;
+        layoutItem(column, item, top, height);
+
+        column.mBottom += height + mPadding;
+        updateColumnHeaps(column);
+    }
+
+    private void addItemToColumnUp(final Column<V> column, final Item<V> item) {
+        mHost.addView(item.mView);
+        int height = measureItem(item);
+        column.mItems.add(0, item);
+        mLayoutModel.setHeight(item.mPosition, height);
+
+        column.mTop -= height + mPadding;
+        if (column == mColumns.get(0)) {
+            mListTopAtDragStart -= height + mPadding;
+        }
+        int top = column.mTop + mPadding;
+        layoutItem(column, item, top, height);
+        updateColumnHeaps(column);
+    }
+
+    private void layoutItem(final Column<V> column, final Item<V> item, final int top, final int height) {
+        mHost.layout(item.mView, column.mLeft, top, column.mLeft + mColumnWidth, top + height);
+        item.mTop = top;
+        item.mHeight = height;
+    }
+
+    private void offsetItem(final Item<V> item, final int offset) {
+        mHost.offsetTopAndBottom(item.mView, offset);
+        item.mTop += offset;
+    }
+
+    // Measures the view of the item, unless it has already been measured for the
+    // column width and nothing in it has changed since, and remembers its height. A
+    // view that was just bound has requested a layout and is always measured, at the
+    // height it is known to have if it has been measured before or the adapter knows
+    // it; the ones that are not are views kept by id through a data change, views
+    // that were prefetched and rebound views that didn't change
+    private int measureItem(final Item<V> item) {
+        V view = item.mView;
+        long key = getMeasureKey(item.mPosition);
+        int height;
+        if (mHost.needsMeasure(view, mColumnWidth)) {
+            height = mHost.measure(view, mColumnWidth, getKnownHeight(item.mPosition, key, item.mViewType));
+        } else {
+            height = mHost.getMeasuredHeight(view);
+        }
+        mMeasureCache.put(key, item.mViewType, height);
+        return height;
+    }
+
+    // Returns the height that the adapter gives for the item, or that it was measured
+    // to before, or UNKNOWN_HEIGHT
+    private int getKnownHeight(final int position, final long key, final int viewType) {
+        int height = mHost.getItemHeight(position, mColumnWidth);
+        if (height != Host.UNKNOWN_HEIGHT) {
+            return height;
+        }
+        height = mMeasureCache.get(key, viewType);
+        return height != MeasureCache.NO_HEIGHT ? height : Host.UNKNOWN_HEIGHT;
+    }
+
+    /**
+     * Starts dragging the list from where it is.
+     */
+    public void startDrag() {
+        mListTopAtDragStart = getListTop();
+    }
+
+    /**
+     * Returns where the top of the list should be when it has been dragged the given
+     * distance since the drag started, held back when it is pulled past its ends.
+     */
+    public int getDragListTop(final float distance) {
+        return applyRubberBand((int) (mListTopAtDragStart + distance));
+    }
+
+    private int applyRubberBand(final int pos) {
+        float rubberbandFactor = mOverscroll ? mRubberbandFactor : 0;
+        if (isFirstItemShowing()) {
+            int topRubberbandPos = getTopSnapPos();
+            if (pos > topRubberbandPos) {
+                return (int) (topRubberbandPos + (pos - topRubberbandPos) * rubberbandFactor);
+            }
+        }
+
+        if (isLastItemShowing()) {
+            int bottomRubberbandPos = getBottomSnapPos();
+            if (pos < bottomRubberbandPos) {
+                return (int) (bottomRubberbandPos + (pos - bottomRubberbandPos) * rubberbandFactor);
+            }
+        }
+
+        return pos;
+    }
+
+    /**
+     * Moves the top of the list to the given place, removes the items that are too
+     * far outside of it and adds the items that come into it, as far as the frame
+     * budget lasts.
+     */
+    public void scrollListTo(final int listTop) {
+        if (mFrameMetrics != null) {
+            long start = System.nanoTime();
+            offsetListTo(listTop);
+            long offsetEnd = System.nanoTime();
+            removeNonVisibleViews();
+            mFrameMetrics.mScrollNanos += offsetEnd - start;
+            mFrameMetrics.mRecycleNanos += System.nanoTime() - offsetEnd;
+        } else {
+            offsetListTo(listTop);
+            removeNonVisibleViews();
+        }
+        fillListWithinBudget();
+    }
+
+    private void offsetListTo(int pos) {
+        int delta = pos - getListTop();
+        if (delta != 0) {
+            int direction = delta < 0 ? 1 : -1;
+            if (direction != mScrollDirection) {
+                // the views bound ahead of time are behind the list now
+                recyclePrefetchedViews();
+                mScrollDirection = direction;
+            }
+        }
+        if (mScrollByOffset) {
+            scrollTo(mScrollY - delta);
+            return;
+        }
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            column.mTop += delta;
+            column.mBottom += delta;
+            for (int j = 0; j < column.mItems.size(); j++) {
+                offsetItem(column.mItems.get(j), delta);
+            }
+        }
+    }
+
+    private void removeNonVisibleViews() {
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            while (column.mItems.size() > 1 && !isTopItemKept(column) && !isLastItemShowing()) {
+                removeTopItem(column);
+            }
+
+            while (column.mItems.size() > 1 && !isBottomItemKept(column) && !isFirstItemShowing()) {
+                removeBottomItem(column);
+            }
+        }
+    }
+
+    // The items are kept a bit further away than the list is filled, so that items
+    // are not removed and added again when scrolling back and forth at the edge
+    private boolean isTopItemKept(final Column<V> column) {
+        Item<V> item = column.mItems.get(0);
+        return item.mTop + item.mHeight >= getFillTop() - mCacheExtent / 2;
+    }
+
+    private boolean isBottomItemKept(final Column<V> column) {
+        return column.mItems.get(column.mItems.size() - 1).mTop
+                <= getFillBottom() - mPaddingBottom + mCacheExtent / 2;
+    }
+
+    private void removeTopItem(final Column<V> column) {
+        Item<V> item = column.mItems.remove(0);
+        column.mTop += item.mHeight + mPadding;
+        updateColumnHeaps(column);
+        if (column == mColumns.get(0)) {
+            mListTopAtDragStart += item.mHeight + mPadding;
+        }
+        removeItemView(item);
+        releaseItem(item);
+    }
+
+    private void removeBottomItem(final Column<V> column) {
+        Item<V> item = column.mItems.remove(column.mItems.size() - 1);
+        column.mBottom -= item.mHeight + mPadding;
+        updateColumnHeaps(column);
+        removeItemView(item);
+        releaseItem(item);
+    }
+
+    private void removeItemView(final Item<V> item) {
+        mHost.removeView(item.mView);
+        if (mKeepViewsById) {
+            mStableIdScrap.put(item.mId, item.mViewType, item.mView);
+        } else {
+            mRecycleBin.put(item.mViewType, item.mView);
+        }
+        item.mView = null;
+    }
+
+    public boolean isLastItemShowing() {
+        int lastPosition = mHost.getItemCount() - 1;
+        if (lastPosition < 0 || lastPosition >= mLayoutModel.getCount()) {
+            return false;
+        }
+        ArrayList<Item<V>> items = mColumns.get(mLayoutModel.getColumn(lastPosition)).mItems;
+        return !items.isEmpty() && items.get(items.size() - 1).mPosition == lastPosition;
+    }
+
+    public boolean isFirstItemShowing() {
+        // the first item is always placed in the first column
+        ArrayList<Item<V>> items = mColumns.get(0).mItems;
+        return !items.isEmpty() && items.get(0).mPosition == 0;
+    }
+
+    /**
+     * Adds the items that didn't fit in the frame budget, and then binds and measures
+     * the next items in each column in the given direction, until the deadline.
+     *
+     * @param direction 1 towards later positions and -1 towards earlier positions
+     * @return true if items were added to the list
+     */
+    public boolean prefetch(final int direction, final long deadline) {
+        int childCount = getChildCount();
+        mFillDeadline = deadline;
+        fillList();
+        boolean added = getChildCount() != childCount;
+
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            if (column.mItems.isEmpty()) {
+                continue;
+            }
+            int position = direction > 0
+                    ? column.mItems.get(column.mItems.size() - 1).mPosition
+                    : column.mItems.get(0).mPosition;
+            for (int n = 0; n < mPrefetchCount; n++) {
+                if (System.nanoTime() > deadline) {
+                    return added;
+                }
+                position = direction > 0
+                        ? getNextInColumnForPrefetch(position, deadline)
+                        : mLayoutModel.getPreviousInColumn(position);
+                if (position == ColumnLayoutModel.NO_POSITION) {
+                    break;
+                }
+                prefetchPosition(position);
+            }
+        }
+        return added;
+    }
+
+    // Returns the position below the given position in its column, laying out the
+    // positions after the end of the layout model, and prefetching them, until one
+    // ends up in the column
+    private int getNextInColumnForPrefetch(final int position, final long deadline) {
+        int column = mLayoutModel.getColumn(position);
+        int nextPosition = mLayoutModel.getNextInColumn(position);
+        while (nextPosition == ColumnLayoutModel.NO_POSITION && mLayoutModel.getCount() < mHost.getItemCount()) {
+            if (System.nanoTime() > deadline) {
+                return ColumnLayoutModel.NO_POSITION;
+            }
+            int newPosition = mLayoutModel.getCount();
+            prefetchPosition(newPosition);
+            if (mLayoutModel.getColumn(newPosition) == column) {
+                nextPosition = newPosition;
+            }
+        }
+        return nextPosition;
+    }
+
+    // Binds, measures and lays out the view of the position so that it can be added to
+    // the list as it is, unless that has already been done
+    private void prefetchPosition(final int position) {
+        if (mPrefetchedViews.indexOf(position) >= 0) {
+            return;
+        }
+        int viewType = mHost.getItemViewType(position);
+        long key = getMeasureKey(position);
+        V view = getView(position, viewType);
+        int height = mHost.measure(view, mColumnWidth, getKnownHeight(position, key, viewType));
+        mHost.layout(view, 0, 0, mColumnWidth, height);
+
+        mMeasureCache.put(key, viewType, height);
+        if (position == mLayoutModel.getCount()) {
+            mLayoutModel.append(mLayoutModel.getNextColumn(), height);
+            recordLaidOutIds(position);
+        } else {
+            mLayoutModel.setHeight(position, height);
+        }
+        mPrefetchedViews.put(position, viewType, view);
+    }
+
+    /**
+     * Returns true if the view of the position has been bound ahead of scrolling.
+     */
+    public boolean isPrefetched(final int position) {
+        return mPrefetchedViews.indexOf(position) >= 0;
+    }
+
+    /**
+     * Puts the views that have been bound ahead of time, but not used, in the recycle bin.
+     */
+    public void recyclePrefetchedViews() {
+        while (mPrefetchedViews.mSize > 0) {
+            int index = mPrefetchedViews.mSize - 1;
+            int viewType = mPrefetchedViews.mViewTypes[index];
+            mRecycleBin.put(viewType, mPrefetchedViews.remove(index));
+        }
+    }
+
+    /**
+     * Sets the distance to fill ahead of the list, a positive distance means that
+     * the list moves down and is filled above.
+     */
+    public void setFillAhead(final float distance) {
+        mFillAheadAbove = distance > 0 ? (int) distance : 0;
+        mFillAheadBelow = distance < 0 ? (int) -distance : 0;
+    }
+
+    public int getTopSnapPos() {
+        return mPaddingTop;
+    }
+
+    public int getBottomSnapPos() {
+        int listHeight = getListHeight();
+        if (listHeight < mHeight - mPaddingBottom) {
+            return mPadding;
+        }
+        return mHeight - mPaddingBottom - listHeight;
+    }
+
+    private int getListHeight() {
+        int listTop = mColumns.get(0).mTop;
+        int listHeight = 0;
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            int columnHeight = column.mBottom - listTop;
+            if (columnHeight > listHeight) {
+                listHeight = columnHeight;
+            }
+        }
+        return listHeight + mPadding;
+    }
+
+    /**
+     * Returns the top of the list on screen.
+     */
+    public int getListTop() {
+        return mColumns.get(0).mTop - mScrollY;
+    }
+
+    /**
+     * Returns how far the list has been scrolled from its top, in the coordinates of
+     * the layout model.
+     */
+    public int getScrollOffset() {
+        for (int i = 0; i < mColumns.size(); i++) {
+            Column<V> column = mColumns.get(i);
+            if (!column.mItems.isEmpty()) {
+                Item<V> item = column.mItems.get(0);
+                return mLayoutModel.getTop(item.mPosition) - item.mTop + mScrollY;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns an estimate of the height of the whole list, without binding or
+     * measuring any items. The positions that have not been laid out yet are added
+     * to the shortest column with the heights that the adapter gives for them, or
+     * the average height of the laid out items if it doesn't know them. This is
+     * kept between calls and only a limited number of positions is added per call,
+     * the positions after those are spread evenly over the columns.
+     */
+    public int getScrollRange() {
+        int laidOutCount = mLayoutModel.getCount();
+        if (laidOutCount == 0) {
+            return 0;
+        }
+        int count = mHost.getItemCount();
+        if (laidOutCount < mEstimateFrom || laidOutCount > mEstimateTo || isEstimateBehindLayoutModel()) {
+            // start again from the end of the layout model. As long as it grows within
+            // the estimate the estimate is kept, since the positions were added to the
+            // same columns with the same heights if the adapter knows them
+            for (int column = 0; column < mEstimatedBottoms.length; column++) {
+                mEstimatedBottoms[column] = mLayoutModel.getColumnBottom(column);
+            }
+            mColumnsByEstimatedBottom.rebuild();
+            mEstimateFrom = laidOutCount;
+            mEstimateTo = laidOutCount;
+        }
+
+        int averageHeight = (int) (mLayoutModel.getTotalHeight() / laidOutCount);
+        if (mHost.hasItemHeights()) {
+            int end = Math.min(count, mEstimateTo + MAX_ESTIMATED_POSITIONS);
+            for (; mEstimateTo < end; mEstimateTo++) {
+                int height = mHost.getItemHeight(mEstimateTo, mColumnWidth);
+                int column = mColumnsByEstimatedBottom.peek();
+                mEstimatedBottoms[column] += mPadding + (height != Host.UNKNOWN_HEIGHT ? height : averageHeight);
+                mColumnsByEstimatedBottom.update(column);
+            }
+        }
+
+        long bottoms = 0;
+        int maxBottom = 0;
+        for (int column = 0; column < mEstimatedBottoms.length; column++) {
+            bottoms += mEstimatedBottoms[column];
+            maxBottom = Math.max(maxBottom, mEstimatedBottoms[column]);
+        }
+        long restCount = Math.max(0, count - mEstimateTo);
+        long evenBottom = (bottoms + restCount * (averageHeight + mPadding)) / mEstimatedBottoms.length;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(maxBottom, evenBottom) + mPadding);
+    }
+
+    // Returns true if a column of the layout model has grown past its estimate, such
+    // as when an item turned out to be higher than the adapter said
+    private boolean isEstimateBehindLayoutModel() {
+        for (int column = 0; column < mEstimatedBottoms.length; column++) {
+            if (mLayoutModel.getColumnBottom(column) > mEstimatedBottoms[column]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the scroll range estimate if it includes the given position, whose
+     * height may have changed.
+     */
+    public void clearScrollRangeEstimate(final int position) {
+        if (position < mEstimateTo) {
+            mEstimateFrom = -1;
+            mEstimateTo = -1;
+        }
+    }
+
+    // Returns the top of what is shown, in the coordinates of the items
+    private int getViewportTop() {
+        return mScrollY;
+    }
+
+    // Returns the bottom of what is shown, in the coordinates of the items
+    private int getViewportBottom() {
+        return mScrollY + mHeight;
+    }
+
+    // Returns how far up the list is filled, in the coordinates of the items
+    private int getFillTop() {
+        return getViewportTop() - mCacheExtent - mFillAheadAbove;
+    }
+
+    // Returns how far down the list is filled, in the coordinates of the items
+    private int getFillBottom() {
+        return getViewportBottom() + mCacheExtent + mFillAheadBelow;
+    }
+}
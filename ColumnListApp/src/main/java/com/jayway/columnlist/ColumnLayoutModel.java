@@ -0,0 +1,441 @@
+package com.jayway.columnlist;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Keeps track of where the items of the list have been placed. For every adapter
+ * position that has been laid out it records the column, the top offset from the
+ * top of the list and the measured height.
+ * <p/>
+ * Positions are always laid out in adapter order so everything is stored in
+ * primitive arrays indexed by position, and every column keeps the positions
+ * placed in it in order. This makes it possible to step up or down in a column
+ * without any searching, boxing or shifting of arrays.
+ * <p/>
+ * The heights of each column are kept in a Fenwick tree, so the top of an item,
+ * the item at a given offset and updating a height are all O(log n).
+ */
+class ColumnLayoutModel {
+
+    // Returned when there is no position
+    static final int NO_POSITION = -1;
+
+    // The initial number of positions that there is room for
+    private static final int INITIAL_CAPACITY = 64;
+
+    // The number of positions that have been laid out
+    private int mCount;
+
+    // The padding between items in a column
+    private int mPadding;
+
+    // The column of each position
+    private byte[] mColumnOfPosition = new byte[INITIAL_CAPACITY];
+
+    // The index within its column of each position
+    private int[] mIndexInColumn = new int[INITIAL_CAPACITY];
+
+    // The height of each position
+    private int[] mHeights = new int[INITIAL_CAPACITY];
+
+    // The positions of each column, in order
+    private final int[][] mColumnPositions;
+
+    // A Fenwick tree per column over the heights of its items, one-based
+    private final int[][] mColumnHeightTrees;
+
+    // The number of positions in each column
+    private final int[] mColumnSizes;
+
+    // The bottom of the last item in each column
+    private final int[] mColumnBottoms;
+
+    // The sum of the heights of all positions
+    private long mTotalHeight;
+
+    public ColumnLayoutModel(final int numberOfColumns) {
+        if (numberOfColumns < 1 || numberOfColumns > 0xFF) {
+            throw new IllegalArgumentException("Unsupported number of columns: " + numberOfColumns);
+        }
+        mColumnPositions = new int[numberOfColumns][INITIAL_CAPACITY];
+        mColumnHeightTrees = new int[numberOfColumns][INITIAL_CAPACITY + 1];
+        mColumnSizes = new int[numberOfColumns];
+        mColumnBottoms = new int[numberOfColumns];
+    }
+
+    public void setPadding(final int padding) {
+        mPadding = padding;
+    }
+
+    public int getNumberOfColumns() {
+        return mColumnSizes.length;
+    }
+
+    /**
+     * Returns the number of positions that have been laid out, which is also the
+     * next position to be added.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    public void clear() {
+        mCount = 0;
+        mTotalHeight = 0;
+        for (int i = 0; i < mColumnSizes.length; i++) {
+            mColumnSizes[i] = 0;
+            mColumnBottoms[i] = 0;
+        }
+    }
+
+    /**
+     * Returns the column that the next position should be added to, which is
+     * the column with the highest bottom.
+     */
+    public int getNextColumn() {
+        int nextColumn = 0;
+        for (int column = 1; column < mColumnBottoms.length; column++) {
+            if (mColumnBottoms[column] < mColumnBottoms[nextColumn]) {
+                nextColumn = column;
+            }
+        }
+        return nextColumn;
+    }
+
+    /**
+     * Adds the next position to the end of the given column.
+     *
+     * @return the position that was added
+     */
+    public int append(final int column, final int height) {
+        int position = mCount;
+        ensurePositionCapacity(position + 1);
+
+        int indexInColumn = mColumnSizes[column];
+        ensureColumnCapacity(column, indexInColumn + 1);
+        mColumnPositions[column][indexInColumn] = position;
+        mColumnSizes[column] = indexInColumn + 1;
+
+        // a new tree node holds its own height plus the nodes it covers
+        int[] tree = mColumnHeightTrees[column];
+        int node = indexInColumn + 1;
+        int sum = height;
+        for (int child = 1; child < (node & -node); child <<= 1) {
+            sum += tree[node - child];
+        }
+        tree[node] = sum;
+
+        mColumnOfPosition[position] = (byte) column;
+        mIndexInColumn[position] = indexInColumn;
+        mHeights[position] = height;
+        mColumnBottoms[column] += mPadding + height;
+        mTotalHeight += height;
+
+        mCount++;
+        return position;
+    }
+
+    /**
+     * Removes all positions from the given position and onwards.
+     */
+    public void truncate(final int count) {
+        if (count >= mCount) {
+            return;
+        }
+        for (int position = mCount - 1; position >= count; position--) {
+            int column = getColumn(position);
+            mColumnSizes[column] = mIndexInColumn[position];
+            mTotalHeight -= mHeights[position];
+        }
+        for (int column = 0; column < mColumnSizes.length; column++) {
+            mColumnBottoms[column] = getOffsetOfIndex(column, mColumnSizes[column]);
+        }
+        mCount = count;
+    }
+
+    public int getColumn(final int position) {
+        return mColumnOfPosition[position] & 0xFF;
+    }
+
+    public int getTop(final int position) {
+        return getOffsetOfIndex(getColumn(position), mIndexInColumn[position]) + mPadding;
+    }
+
+    public int getHeight(final int position) {
+        return mHeights[position];
+    }
+
+    public int getBottom(final int position) {
+        return getTop(position) + mHeights[position];
+    }
+
+    /**
+     * Updates the height of a position, which moves down (or up) all the items
+     * below it in the same column.
+     */
+    public void setHeight(final int position, final int height) {
+        int delta = height - mHeights[position];
+        if (delta == 0) {
+            return;
+        }
+        mHeights[position] = height;
+        mTotalHeight += delta;
+
+        int column = getColumn(position);
+        int[] tree = mColumnHeightTrees[column];
+        int size = mColumnSizes[column];
+        for (int node = mIndexInColumn[position] + 1; node <= size; node += node & -node) {
+            tree[node] += delta;
+        }
+        mColumnBottoms[column] += delta;
+    }
+
+    /**
+     * Returns the first position in the column that ends below the given offset,
+     * or {@link #NO_POSITION} if the whole column ends above it.
+     */
+    public int findInColumn(final int column, final int offset) {
+        int[] tree = mColumnHeightTrees[column];
+        int size = mColumnSizes[column];
+
+        // walk down the tree to find the number of items that end at or above the offset
+        int index = 0;
+        int heights = 0;
+        for (int step = Integer.highestOneBit(Math.max(size, 1)); step > 0; step >>= 1) {
+            int node = index + step;
+            if (node <= size && heights + tree[node] + node * mPadding <= offset) {
+                index = node;
+                heights += tree[node];
+            }
+        }
+        return index < size ? mColumnPositions[column][index] : NO_POSITION;
+    }
+
+    /**
+     * Returns the position above the given position in its column, or
+     * {@link #NO_POSITION} if it is the first one.
+     */
+    public int getPreviousInColumn(final int position) {
+        int index = mIndexInColumn[position];
+        if (index == 0) {
+            return NO_POSITION;
+        }
+        return mColumnPositions[getColumn(position)][index - 1];
+    }
+
+    /**
+     * Returns the position below the given position in its column, or
+     * {@link #NO_POSITION} if nothing has been laid out below it yet.
+     */
+    public int getNextInColumn(final int position) {
+        int column = getColumn(position);
+        int index = mIndexInColumn[position] + 1;
+        if (index >= mColumnSizes[column]) {
+            return NO_POSITION;
+        }
+        return mColumnPositions[column][index];
+    }
+
+    public int getLastInColumn(final int column) {
+        int size = mColumnSizes[column];
+        return size == 0 ? NO_POSITION : mColumnPositions[column][size - 1];
+    }
+
+    public int getColumnBottom(final int column) {
+        return mColumnBottoms[column];
+    }
+
+    /**
+     * Returns the sum of the heights of all positions, without the padding.
+     */
+    public long getTotalHeight() {
+        return mTotalHeight;
+    }
+
+    /**
+     * Packs the columns and heights of the positions from the given start up to the
+     * given count into variable length ints, to be restored with
+     * {@link #restore(byte[])}. Of the positions before the start only the number
+     * and the bottom of each column are kept.
+     */
+    public byte[] save(final int start, final int count) {
+        int numberOfColumns = mColumnSizes.length;
+        ByteArrayOutputStream out = new ByteArrayOutputStream((count - start) * 2 + numberOfColumns * 4 + 12);
+        writeVarInt(out, numberOfColumns);
+        writeVarInt(out, start);
+        writeVarInt(out, count - start);
+        if (start > 0) {
+            for (int column = 0; column < numberOfColumns; column++) {
+                int index = getIndexOfFirstFrom(column, start);
+                writeVarInt(out, index);
+                writeVarInt(out, getOffsetOfIndex(column, index));
+            }
+        }
+        for (int position = start; position < count; position++) {
+            // the column fits in the low digits of the height
+            writeVarInt(out, mHeights[position] * numberOfColumns + getColumn(position));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Replaces all positions with the ones packed by {@link #save(int, int)}. The
+     * positions before the saved ones get the same number and bottom in each column
+     * as when they were saved, but are spread evenly over their column with the
+     * same height, so their heights have to be set when they are measured.
+     *
+     * @return false, leaving the model empty, if the data was saved with another
+     * number of columns or is malformed
+     */
+    public boolean restore(final byte[] data) {
+        clear();
+        int numberOfColumns = mColumnSizes.length;
+        int[] offset = new int[1];
+        if (readVarInt(data, offset) != numberOfColumns) {
+            return false;
+        }
+        int start = readVarInt(data, offset);
+        int count = readVarInt(data, offset);
+        if (start < 0 || count < 0) {
+            return false;
+        }
+        if (start > 0 && !restoreStart(data, offset, start)) {
+            clear();
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            int value = readVarInt(data, offset);
+            if (value < 0) {
+                clear();
+                return false;
+            }
+            append(value % numberOfColumns, value / numberOfColumns);
+        }
+        return true;
+    }
+
+    // Appends the given number of positions so that every column gets the number of
+    // positions and the bottom that were saved, interleaving the columns as evenly
+    // as the numbers allow
+    private boolean restoreStart(final byte[] data, final int[] offset, final int start) {
+        int numberOfColumns = mColumnSizes.length;
+        int[] sizes = new int[numberOfColumns];
+        int[] bottoms = new int[numberOfColumns];
+        long total = 0;
+        for (int column = 0; column < numberOfColumns; column++) {
+            sizes[column] = readVarInt(data, offset);
+            bottoms[column] = readVarInt(data, offset);
+            if (sizes[column] < 0 || bottoms[column] < (long) sizes[column] * mPadding) {
+                return false;
+            }
+            total += sizes[column];
+        }
+        if (total != start) {
+            return false;
+        }
+
+        int[] remaining = sizes.clone();
+        for (int position = 0; position < start; position++) {
+            // the column that is furthest behind in its share of the positions
+            int column = -1;
+            for (int i = 0; i < numberOfColumns; i++) {
+                if (remaining[i] > 0 && (column < 0
+                        || (long) remaining[i] * sizes[column] > (long) remaining[column] * sizes[i])) {
+                    column = i;
+                }
+            }
+            int heights = bottoms[column] - sizes[column] * mPadding;
+            int height = heights / sizes[column];
+            if (remaining[column] == 1) {
+                // the last one gets what is left over
+                height += heights - height * sizes[column];
+            }
+            append(column, height);
+            remaining[column]--;
+        }
+        return true;
+    }
+
+    // Returns the index in the column of its first position from the given position
+    // and on, or the size of the column if there is none
+    private int getIndexOfFirstFrom(final int column, final int position) {
+        int[] positions = mColumnPositions[column];
+        int low = 0;
+        int high = mColumnSizes[column];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (positions[middle] < position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static void writeVarInt(final ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // Reads the int at the offset and moves the offset past it, or returns -1 if the
+    // data ends before it does
+    private static int readVarInt(final byte[] data, final int[] offset) {
+        int value = 0;
+        for (int shift = 0; shift < 32 && offset[0] < data.length; shift += 7) {
+            int b = data[offset[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the bottom of the item before the given index in the column
+    private int getOffsetOfIndex(final int column, final int index) {
+        int[] tree = mColumnHeightTrees[column];
+        int heights = 0;
+        for (int node = index; node > 0; node -= node & -node) {
+            heights += tree[node];
+        }
+        return heights + index * mPadding;
+    }
+
+    private void ensurePositionCapacity(final int capacity) {
+        if (capacity <= mHeights.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mHeights.length * 2);
+        byte[] columnOfPosition = new byte[newCapacity];
+        System.arraycopy(mColumnOfPosition, 0, columnOfPosition, 0, mCount);
+        mColumnOfPosition = columnOfPosition;
+
+        int[] indexInColumn = new int[newCapacity];
+        System.arraycopy(mIndexInColumn, 0, indexInColumn, 0, mCount);
+        mIndexInColumn = indexInColumn;
+
+        int[] heights = new int[newCapacity];
+        System.arraycopy(mHeights, 0, heights, 0, mCount);
+        mHeights = heights;
+    }
+
+    private void ensureColumnCapacity(final int column, final int capacity) {
+        int[] positions = mColumnPositions[column];
+        if (capacity > positions.length) {
+            int newCapacity = Math.max(capacity, positions.length * 2);
+            int size = mColumnSizes[column];
+
+            int[] newPositions = new int[newCapacity];
+            System.arraycopy(positions, 0, newPositions, 0, size);
+            mColumnPositions[column] = newPositions;
+
+            int[] newTree = new int[newCapacity + 1];
+            System.arraycopy(mColumnHeightTrees[column], 0, newTree, 0, size + 1);
+            mColumnHeightTrees[column] = newTree;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.jayway.columnlist;
+
+import android.database.DataSetObserver;
+import android.widget.BaseAdapter;
+
+import java.util.ArrayList;
+
+/**
+ * A base adapter that, besides {@link #notifyDataSetChanged()}, can tell its
+ * observers exactly which items were changed, inserted, removed or moved. A
+ * {@link ColumnListView} uses this to rebind only the affected items instead of
+ * reloading every item on screen.
+ */
+public abstract class ColumnListAdapter extends BaseAdapter {
+
+    /**
+     * An observer that is told which items changed. By default every change is
+     * reported as {@link #onChanged()}. Observers that are not item observers
+     * always get {@link #onChanged()}.
+     */
+    public static abstract class ItemObserver extends DataSetObserver {
+
+        public void onItemRangeChanged(final int positionStart, final int itemCount) {
+            onChanged();
+        }
+
+        public void onItemRangeInserted(final int positionStart, final int itemCount) {
+            onChanged();
+        }
+
+        public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+            onChanged();
+        }
+
+        public void onItemMoved(final int fromPosition, final int toPosition) {
+            onChanged();
+        }
+    }
+
+    // The registered observers
+    private final ArrayList<DataSetObserver> mObservers = new ArrayList<DataSetObserver>();
+
+    @Override
+    public void registerDataSetObserver(final DataSetObserver observer) {
+        if (observer == null) {
+            throw new IllegalArgumentException("The observer is null.");
+        }
+        if (mObservers.contains(observer)) {
+            throw new IllegalStateException("Observer " + observer + " is already registered.");
+        }
+        mObservers.add(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(final DataSetObserver observer) {
+        mObservers.remove(observer);
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        for (int i = mObservers.size() - 1; i >= 0; i--) {
+            mObservers.get(i).onChanged();
+        }
+    }
+
+    @Override
+    public void notifyDataSetInvalidated() {
+        for (int i = mObservers.size() - 1; i >= 0; i--) {
+            mObservers.get(i).onInvalidated();
+        }
+    }
+
+    public void notifyItemChanged(final int position) {
+        notifyItemRangeChanged(position, 1);
+    }
+
+    public void notifyItemRangeChanged(final int positionStart, final int itemCount) {
+        for (int i = mObservers.size() - 1; i >= 0; i--) {
+            DataSetObserver observer = mObservers.get(i);
+            if (observer instanceof ItemObserver) {
+                ((ItemObserver) observer).onItemRangeChanged(positionStart, itemCount);
+            } else {
+                observer.onChanged();
+            }
+        }
+    }
+
+    public void notifyItemInserted(final int position) {
+        notifyItemRangeInserted(position, 1);
+    }
+
+    public void notifyItemRangeInserted(final int positionStart, final int itemCount) {
+        for (int i = mObservers.size() - 1; i >= 0; i--) {
+            DataSetObserver observer = mObservers.get(i);
+            if (observer instanceof ItemObserver) {
+                ((ItemObserver) observer).onItemRangeInserted(positionStart, itemCount);
+            } else {
+                observer.onChanged();
+            }
+        }
+    }
+
+    public void notifyItemRemoved(final int position) {
+        notifyItemRangeRemoved(position, 1);
+    }
+
+    public void notifyItemRangeRemoved(final int positionStart, final int itemCount) {
+        for (int i = mObservers.size() - 1; i >= 0; i--) {
+            DataSetObserver observer = mObservers.get(i);
+            if (observer instanceof ItemObserver) {
+                ((ItemObserver) observer).onItemRangeRemoved(positionStart, itemCount);
+            } else {
+                observer.onChanged();
+            }
+        }
+    }
+
+    public void notifyItemMoved(final int fromPosition, final int toPosition) {
+        for (int i = mObservers.size() - 1; i >= 0; i--) {
+            DataSetObserver observer = mObservers.get(i);
+            if (observer instanceof ItemObserver) {
+                ((ItemObserver) observer).onItemMoved(fromPosition, toPosition);
+            } else {
+                observer.onChanged();
+            }
+        }
+    }
+}
@@ -3,86 +3,242 @@ package com.jayway.columnlist;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.database.DataSetObserver;
+import android.graphics.Canvas;
 import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
-import android.util.FloatMath;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
-import android.view.animation.AnimationUtils;
+import android.view.WindowManager;
 import android.widget.AdapterView;
+import android.widget.Checkable;
 import android.widget.ListAdapter;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 /**
  * A multi column list
  */
 public class ColumnListView extends AdapterView<ListAdapter> {
 
-    // Touch states
-    private enum TouchState {
-        RESTING, PRESSED, SCROLLING, LONG_PRESS
+    /**
+     * Scroll mode where the items are moved when the list is scrolled.
+     */
+    public static final int SCROLL_MODE_MOVE_CHILDREN = 0;
+
+    /**
+     * Scroll mode where the items stay where they were laid out and the list is
+     * scrolled by changing the scroll position of the view, which is applied when
+     * drawing and dispatching touches. The cost of scrolling then doesn't depend on
+     * the number of items on screen.
+     */
+    public static final int SCROLL_MODE_SCROLL_OFFSET = 1;
+
+    /**
+     * Listener that is told when the list scrolls and when it starts or stops
+     * being dragged or flinging. The list doesn't allocate anything to report
+     * this, the positions and velocity can be read from the list when needed,
+     * see {@link #getScrollVelocity()}, {@link #getFirstVisiblePosition(int)} and
+     * {@link #getLastVisiblePosition(int)}.
+     */
+    public interface OnScrollListener {
+
+        // The list is not moving
+        int SCROLL_STATE_IDLE = 0;
+
+        // The list is being dragged
+        int SCROLL_STATE_TOUCH_SCROLL = 1;
+
+        // The list is moving after being dragged
+        int SCROLL_STATE_FLING = 2;
+
+        void onScrollStateChanged(ColumnListView view, int scrollState);
+
+        /**
+         * Called when the list has scrolled or has been laid out.
+         */
+        void onScroll(ColumnListView view, int firstVisiblePosition, int lastVisiblePosition);
     }
 
-    // Holder class for the data of items of the list
-    // All the data is provided by the adapter
-    private static class Item {
+    /**
+     * Choice mode where items can't be checked.
+     */
+    public static final int CHOICE_MODE_NONE = 0;
+
+    /**
+     * Choice mode where at most one item is checked.
+     */
+    public static final int CHOICE_MODE_SINGLE = 1;
+
+    /**
+     * Choice mode where any number of items can be checked.
+     */
+    public static final int CHOICE_MODE_MULTIPLE = 2;
+
+    /**
+     * Listener that gets the time the list spent on each part of its work in a frame,
+     * when the frame is drawn. The work done between frames, such as prefetching, is
+     * included in the next frame. When no listener is set nothing is measured.
+     */
+    public interface OnFrameMetricsListener {
+
+        /**
+         * Called when a frame has been drawn. The metrics object is reused for the
+         * next frame.
+         */
+        void onFrameMetrics(ColumnListView view, FrameMetrics metrics);
+    }
 
-        // Position in the adapter for this item
-        private int mPosition;
+    // The time between frames in nanoseconds when the refresh rate of the display is not known
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
 
-        // The view of the item
-        private View mView;
+    // The lowest refresh rate of a display that is believed, lower rates are taken to be wrong
+    private static final float MIN_REFRESH_RATE = 30;
 
-        // The id for this item
-        private long mId;
-    }
+    // The most positions whose layout is saved with the state of the list, which
+    // keeps the saved state small
+    private static final int MAX_SAVED_POSITIONS = 10000;
 
-    // Represents the visible part of a column
-    private static class Column {
-        // The items that makes up the column
-        final ArrayList<Item> mItems = new ArrayList<Item>();
+    // The longest time the first layout waits for the layout cache to be loaded, in
+    // milliseconds, before the list is filled from the top
+    private static final int LAYOUT_CACHE_WAIT_MILLIS = 100;
 
-        // The left position of the column
-        int mLeft;
+    // Touch states
+    private enum TouchState {
+        RESTING, PRESSED, SCROLLING, LONG_PRESS
+    }
 
-        // The top coordinate of the column
-        int mTop;
+    // The number of positions searched for a view type to warm up
+    private static final int WARM_UP_SEARCH_LIMIT = 100;
 
-        // The bottom coordinate of the column
-        int mBottom;
+    // Returned as the checked ids when there are none
+    private static final long[] NO_IDS = new long[0];
 
-        // The list of item positions that used to be above the current
-        // list of items
-        final ArrayList<Integer> mPreviousItems = new ArrayList<Integer>();
-    }
+    // The longest time spent looking for the first item on screen after a data change,
+    // in milliseconds, like ListView
+    private static final int SYNC_MAX_DURATION_MILLIS = 100;
 
+    // How far from its old position a checked item is looked for after a data change,
+    // like ListView
+    private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
 
     // The adapter that contains the data
     private ListAdapter mAdapter;
 
-    // The list of columns
-    final private ArrayList<Column> mColumns = new ArrayList<Column>();
+    // Lays out, fills and recycles the items of the list
+    final private ColumnLayout<View> mLayout;
+
+    // The motion of the list after the user has let go of it
+    final private FlingIntegrator mFling;
 
     // An observer that is registered on the adapter to be able to react to changes in the data
     private DataSetObserver mDataSetObserver;
 
-    // Cache of item views
-    final private HashMap<Integer, ArrayList<View>> mItemViewCache = new HashMap<Integer, ArrayList<View>>();
+    // The time between frames of the display that the list is shown on, in nanoseconds
+    private long mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+
+    // The frame time of the last frame that the list was drawn in, in nanoseconds, or 0
+    private long mLastFrameTimeNanos;
+
+    // Binds the items ahead of scrolling after a frame has been drawn
+    final private Runnable mPrefetchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            prefetch();
+        }
+    };
+
+    // True if the prefetch runnable is posted
+    private boolean mPrefetchScheduled;
+
+    // The number of views that the adapter has created rather than reused
+    private int mInflationCount;
+
+    // Listener for the metrics of each frame, if any
+    private OnFrameMetricsListener mOnFrameMetricsListener;
+
+    // The metrics of the current frame, only created when there is a listener
+    private FrameMetrics mFrameMetrics;
+
+    // The time when the last frame was drawn, in nanoseconds
+    private long mLastFrameDrawTime;
+
+    // The trace that touch events are recorded to, if any
+    private ScrollTrace mScrollTrace;
+
+    // The number of views of each view type to create for the recycle bin when idle
+    private int[] mWarmUpCounts;
 
-    // The padding between columns
-    private int mPadding;
+    // True if the warm up should start after the next layout
+    private boolean mWarmUpPending;
 
-    // The width of a column
-    private int mColumnWidth;
+    // Creates views for the recycle bin when the main thread is idle
+    final private WarmUp mWarmUp = new WarmUp();
+
+    // The time when the adapter was set, in nanoseconds
+    private long mAdapterSetTime;
+
+    // The time from setting the adapter until the first frame with items, in milliseconds
+    private float mTimeToFirstFrame = -1;
+
+    // The number of created views when the first fling started, -1 before that
+    private int mInflationCountAtFirstFling = -1;
+
+    // The number of views created during the first fling, -1 until it is done
+    private int mFirstFlingInflationCount = -1;
+
+    // Runs the preparations of items if the adapter is a PreparableListAdapter
+    private Executor mPreparationExecutor;
+
+    // The preparations of the items that are about to be shown, by position
+    final private SparseArray<FutureTask<Object>> mPreparations = new SparseArray<FutureTask<Object>>();
 
     // The current touch status
     private TouchState mTouchState = TouchState.RESTING;
 
+    // The scroll state reported to the scroll listener
+    private int mScrollState = OnScrollListener.SCROLL_STATE_IDLE;
+
+    // Listener for scroll changes, if any
+    private OnScrollListener mOnScrollListener;
+
+    // Listeners for scroll changes that have been added next to the one that is set
+    final private ArrayList<OnScrollListener> mOnScrollListeners = new ArrayList<OnScrollListener>();
+
+    // How items can be checked
+    private int mChoiceMode;
+
+    // The checked positions
+    final private SparseBooleanArray mCheckStates = new SparseBooleanArray();
+
+    // The ids of the checked items, in the order of their positions. With stable ids
+    // they are looked up whenever the checked items change, so that the checked items
+    // can be found again by id after a data change
+    private long[] mCheckedIds = NO_IDS;
+
+    // True if the checked ids have to be looked up again
+    private boolean mCheckedIdsDirty;
+
+    // True if views have been checked, which then have to be unchecked when they are
+    // reused even if there is no choice mode anymore
+    private boolean mCheckStatesApplied;
+
     // The length needed to move a touch for it to be a scroll
     private final int mTouchSlop;
 
@@ -92,64 +248,260 @@ public class ColumnListView extends AdapterView<ListAdapter> {
     // The y-coordinate where the touch started
     private int mTouchDownY;
 
-    // The first column top position when the touch started
-    private int mListTopAtTouchStart;
-
     // A velocity tracker used to calculate the velocity of the fling
     private VelocityTracker mVelocityTracker;
 
-    // The touched item, if any
-    private Item mTouchedItem;
+    // The view of the touched item, if any
+    private View mTouchedView;
+
+    // The position of the touched item
+    private int mTouchedPosition;
 
-    // The number of columns
-    private int mNumberOfColumns;
+    // The id of the touched item
+    private long mTouchedId;
 
-    // The damping while flinging, higher number -> more damping
-    private float mFlingDamping;
+    // True if the views should be reloaded next layout pass
+    private boolean mReloadViews;
 
-    // The spring when snapping, higher number -> faster snap
-    private float mSnapSpring;
+    // How the list is moved when scrolled
+    private int mScrollMode;
 
-    // The damping when snapping, calculated based on the snap spring
-    private float mSnapDamping;
+    // Moves the list after the user has let go of it
+    final private FlingRunnable mFlingRunnable = new FlingRunnable();
 
-    // The amount of resistance when dragging outside of limits
-    private float mRubberbandFactor;
+    // The position to show at the top of the list next layout pass
+    private int mPendingSelection = INVALID_POSITION;
 
-    // True if the views should be reloaded next layout pass
-    private boolean mReloadViews;
+    // The distance from the top of the list to show the pending selection at
+    private int mPendingSelectionOffset;
 
-    // True if overscoll is allowed
-    private boolean mOverscroll;
+    // State that has been restored but not laid out yet
+    private SavedState mPendingState;
 
+    // The file that the layout is kept in between runs, if any
+    private LayoutCache mLayoutCache;
 
+    // Loads the layout cache off the main thread, null if there is nothing to load
+    private FutureTask<LayoutCache.Loaded> mLayoutCacheLoad;
+
+    // The uptime until which the first layout waits for the layout cache, in milliseconds
+    private long mLayoutCacheDeadline;
+
+    // Lays out the list when the layout cache has been loaded, or when the first
+    // layout can't wait for it any longer
+    final private Runnable mLayoutCacheRunnable = new Runnable() {
+        @Override
+        public void run() {
+            requestLayout();
+        }
+    };
+
+    // The first position of the items that have changed and should be rebound next layout pass
+    private int mChangedStart = INVALID_POSITION;
+
+    // The position after the last changed item
+    private int mChangedEnd = INVALID_POSITION;
 
     public ColumnListView(final Context context, final AttributeSet attrs) {
         super(context, attrs);
-        readAttrs(context, attrs);
+        TypedArray attributes = context.obtainStyledAttributes(attrs, R.styleable.ColumnListView);
+        int numberOfColumns = attributes.getInt(R.styleable.ColumnListView_columns, 2);
+        int padding = (int) attributes.getDimension(R.styleable.ColumnListView_column_padding, 0);
+        mLayout = new ColumnLayout<View>(new LayoutHost(), numberOfColumns, padding);
+        mFling = new FlingIntegrator(mLayout);
+        readAttrs(attributes);
+        attributes.recycle();
 
         mTouchSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
-        createColumns(mNumberOfColumns);
     }
 
-    private void readAttrs(final Context context, final AttributeSet attrs) {
-        TypedArray attributes = context.obtainStyledAttributes(attrs, R.styleable.ColumnListView);
+    private void readAttrs(final TypedArray attributes) {
+        mLayout.setOverscroll(attributes.getBoolean(R.styleable.ColumnListView_overscroll, true));
+        mFling.setFlingDamping(attributes.getFloat(R.styleable.ColumnListView_fling_damping,
+                FlingIntegrator.DEFAULT_FLING_DAMPING));
+        mFling.setSnapSpring(attributes.getInt(R.styleable.ColumnListView_snap_spring,
+                FlingIntegrator.DEFAULT_SNAP_SPRING));
+        mLayout.setRubberbandFactor(attributes.getFloat(R.styleable.ColumnListView_rubberband_factor,
+                ColumnLayout.DEFAULT_RUBBERBAND_FACTOR));
+        mScrollMode = attributes.getInt(R.styleable.ColumnListView_scroll_mode, SCROLL_MODE_MOVE_CHILDREN);
+        mLayout.setScrollByOffset(mScrollMode == SCROLL_MODE_SCROLL_OFFSET);
+        setFrameBudget(attributes.getFloat(R.styleable.ColumnListView_frame_budget, 4));
+        mLayout.setPrefetchCount(attributes.getInt(R.styleable.ColumnListView_prefetch_count, 2));
+        mLayout.setCacheExtent((int) attributes.getDimension(R.styleable.ColumnListView_cache_extent, 0));
+        mChoiceMode = attributes.getInt(R.styleable.ColumnListView_choice_mode, CHOICE_MODE_NONE);
+    }
 
-        mNumberOfColumns = attributes.getInt(R.styleable.ColumnListView_columns, 2);
-        mPadding = (int) attributes.getDimension(R.styleable.ColumnListView_column_padding, 0);
-        mOverscroll = attributes.getBoolean(R.styleable.ColumnListView_overscroll, true);
-        mFlingDamping = attributes.getFloat(R.styleable.ColumnListView_fling_damping, 1.5f);
-        mSnapSpring = attributes.getInt(R.styleable.ColumnListView_snap_spring, 100);
-        mSnapDamping = 2 * FloatMath.sqrt(mSnapSpring);
-        mRubberbandFactor = attributes.getFloat(R.styleable.ColumnListView_rubberband_factor, 0.4f);
+    // Lets the layout reach the adapter and add, measure and lay out the views of the
+    // items as children of the list
+    private class LayoutHost implements ColumnLayout.Host<View> {
 
-        attributes.recycle();
+        @Override
+        public int getItemCount() {
+            return mAdapter.getCount();
+        }
+
+        @Override
+        public int getItemViewType(final int position) {
+            return mAdapter.getItemViewType(position);
+        }
+
+        @Override
+        public long getItemId(final int position) {
+            return mAdapter.getItemId(position);
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return mAdapter.hasStableIds();
+        }
+
+        @Override
+        public boolean hasItemHeights() {
+            return mAdapter instanceof HeightProvidingListAdapter;
+        }
+
+        @Override
+        public int getItemHeight(final int position, final int columnWidth) {
+            if (mAdapter instanceof HeightProvidingListAdapter) {
+                return ((HeightProvidingListAdapter) mAdapter).getItemHeight(position, columnWidth);
+            }
+            return UNKNOWN_HEIGHT;
+        }
+
+        @Override
+        public View getView(final int position, final int viewType, final View convertView) {
+            long start = mFrameMetrics != null ? System.nanoTime() : 0;
+            View view = bindView(position, convertView);
+            countBind(view, convertView, start);
+            return view;
+        }
+
+        @Override
+        public void updateItemState(final View view, final int position) {
+            applyCheckState(view, position);
+        }
+
+        @Override
+        public void addView(final View view) {
+            addViewToLayout(view);
+        }
+
+        @Override
+        public void removeView(final View view) {
+            if (view == mTouchedView) {
+                mTouchedView = null;
+            }
+            removeViewInLayout(view);
+        }
+
+        @Override
+        public boolean needsMeasure(final View view, final int width) {
+            return view.isLayoutRequested() || view.getMeasuredWidth() != width;
+        }
+
+        @Override
+        public int measure(final View view, final int width, final int knownHeight) {
+            measureView(view, width, knownHeight);
+            return view.getMeasuredHeight();
+        }
+
+        @Override
+        public int getMeasuredHeight(final View view) {
+            return view.getMeasuredHeight();
+        }
+
+        @Override
+        public void layout(final View view, final int left, final int top, final int right, final int bottom) {
+            long start = mFrameMetrics != null ? System.nanoTime() : 0;
+            view.layout(left, top, right, bottom);
+            if (mFrameMetrics != null) {
+                mFrameMetrics.mLayoutNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void offsetTopAndBottom(final View view, final int offset) {
+            view.offsetTopAndBottom(offset);
+        }
+
+        @Override
+        public void scrollTo(final int scrollY) {
+            ColumnListView.this.scrollTo(0, scrollY);
+        }
+    }
+
+    /**
+     * Sets how the list is moved when it is scrolled, either
+     * {@link #SCROLL_MODE_MOVE_CHILDREN} or {@link #SCROLL_MODE_SCROLL_OFFSET}.
+     */
+    public void setScrollMode(final int scrollMode) {
+        if (scrollMode == mScrollMode) {
+            return;
+        }
+        ColumnLayout.Item<View> firstItem = mLayout.getFirstVisibleItem();
+        if (firstItem != null) {
+            // lay out the list again in the new mode, keeping the first item where it is
+            mPendingSelection = firstItem.mPosition;
+            mPendingSelectionOffset = mLayout.getOffset(firstItem);
+            requestLayout();
+        }
+        mScrollMode = scrollMode;
+        mLayout.setScrollByOffset(scrollMode == SCROLL_MODE_SCROLL_OFFSET);
+    }
+
+    public int getScrollMode() {
+        return mScrollMode;
+    }
+
+    /**
+     * Sets the time, in milliseconds, that may be spent per frame of a fling to add
+     * the items that will scroll into view in the next frames. The items needed to
+     * cover the list are always added, the rest is added in later frames when the
+     * budget runs out.
+     */
+    public void setFrameBudget(final float millis) {
+        mLayout.setFrameBudgetNanos((long) (millis * 1000000));
+    }
+
+    public float getFrameBudget() {
+        return mLayout.getFrameBudgetNanos() / 1000000f;
+    }
+
+    /**
+     * Sets the number of items per column that are bound and measured ahead of
+     * scrolling, in the time left of each frame. 0 turns it off.
+     */
+    public void setPrefetchCount(final int prefetchCount) {
+        mLayout.setPrefetchCount(prefetchCount);
+    }
+
+    public int getPrefetchCount() {
+        return mLayout.getPrefetchCount();
+    }
+
+    /**
+     * Sets the distance in pixels above and below the list that is kept laid out, so
+     * that items that are scrolled just out of the list and back again are not
+     * rebound. Items are removed when they are half that distance further away.
+     */
+    public void setCacheExtent(final int cacheExtent) {
+        mLayout.setCacheExtent(cacheExtent);
+        requestLayout();
     }
 
-    private void createColumns(int numberOfColumns) {
-        for (int i = 0; i < numberOfColumns; i++) {
-            Column column = new Column();
-            mColumns.add(column);
+    public int getCacheExtent() {
+        return mLayout.getCacheExtent();
+    }
+
+    /**
+     * Sets the executor that prepares the items that are about to be shown, if the
+     * adapter is a {@link PreparableListAdapter}. Null, the default, prepares the
+     * items on the main thread when they are bound.
+     */
+    public void setPreparationExecutor(final Executor executor) {
+        mPreparationExecutor = executor;
+        if (executor == null) {
+            cancelPreparations();
         }
     }
 
@@ -166,12 +518,22 @@ public class ColumnListView extends AdapterView<ListAdapter> {
         }
 
         clearAllData();
+        mPendingSelection = INVALID_POSITION;
+        clearCheckStates();
+        mCheckStatesApplied = false;
+        mWarmUpCounts = null;
+        mAdapterSetTime = System.nanoTime();
+        mTimeToFirstFrame = -1;
+        mInflationCountAtFirstFling = -1;
+        mFirstFlingInflationCount = -1;
 
         mAdapter = adapter;
+        startLayoutCacheLoad();
 
         if (mAdapter != null) {
             ensureDataSetObserverIsCreated();
             mAdapter.registerDataSetObserver(mDataSetObserver);
+            mLayout.getRecycleBin().setViewTypeCount(mAdapter.getViewTypeCount());
         }
         requestLayout();
 
@@ -179,9 +541,19 @@ public class ColumnListView extends AdapterView<ListAdapter> {
 
     private void ensureDataSetObserverIsCreated() {
         if (mDataSetObserver == null) {
-            mDataSetObserver = new DataSetObserver() {
+            mDataSetObserver = new ColumnListAdapter.ItemObserver() {
                 @Override
                 public void onChanged() {
+                    mLayout.clearScrollRangeEstimate(0);
+                    mLayout.recyclePrefetchedViews();
+                    cancelPreparations();
+                    if (mAdapter.hasStableIds()) {
+                        confirmCheckedPositionsById();
+                    } else {
+                        // the items may be at other positions now
+                        mLayout.getMeasureCache().clear();
+                        removeCheckStatesFrom(mAdapter.getCount());
+                    }
                     mReloadViews = true;
                     requestLayout();
                 }
@@ -191,28 +563,268 @@ public class ColumnListView extends AdapterView<ListAdapter> {
                     clearAllData();
                     requestLayout();
                 }
+
+                @Override
+                public void onItemRangeChanged(final int positionStart, final int itemCount) {
+                    mLayout.clearScrollRangeEstimate(positionStart);
+                    mLayout.recyclePrefetchedViews();
+                    cancelPreparations();
+                    for (int position = positionStart; position < positionStart + itemCount; position++) {
+                        mLayout.getMeasureCache().remove(mLayout.getMeasureKey(position));
+                    }
+                    // the checked items in the range may have other ids now
+                    checkStatesChanged();
+                    markItemsChanged(positionStart, positionStart + itemCount);
+                }
+
+                @Override
+                public void onItemRangeInserted(final int positionStart, final int itemCount) {
+                    offsetCheckStates(positionStart, itemCount);
+                    mLayout.clearScrollRangeEstimate(positionStart);
+                    if (positionStart >= mLayout.getLayoutModel().getCount()) {
+                        // nothing that has been laid out moves, such as when a page is appended
+                        itemsChangedAfterLayout(positionStart);
+                        return;
+                    }
+                    mLayout.recyclePrefetchedViews();
+                    cancelPreparations();
+                    mLayout.clearPositionMeasurements(positionStart);
+                    // the first item on screen moves down if the items are inserted above it
+                    int firstPosition = getFirstVisiblePosition();
+                    relayoutFrom(positionStart, firstPosition >= positionStart ? firstPosition + itemCount : firstPosition);
+                }
+
+                @Override
+                public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+                    offsetCheckStates(positionStart, -itemCount);
+                    mLayout.clearScrollRangeEstimate(positionStart);
+                    if (positionStart >= mLayout.getLayoutModel().getCount()) {
+                        itemsChangedAfterLayout(positionStart);
+                        return;
+                    }
+                    mLayout.recyclePrefetchedViews();
+                    cancelPreparations();
+                    mLayout.clearPositionMeasurements(positionStart);
+                    // the first item on screen moves up if items above it are removed, and
+                    // the list is laid out from where it was if it is removed itself
+                    int firstPosition = getFirstVisiblePosition();
+                    relayoutFrom(positionStart, firstPosition >= positionStart
+                            ? Math.max(positionStart, firstPosition - itemCount) : firstPosition);
+                }
+
+                @Override
+                public void onItemMoved(final int fromPosition, final int toPosition) {
+                    boolean checked = mCheckStates.get(fromPosition);
+                    offsetCheckStates(fromPosition, -1);
+                    offsetCheckStates(toPosition, 1);
+                    if (checked) {
+                        mCheckStates.put(toPosition, true);
+                        checkStatesChanged();
+                    }
+                    mLayout.clearScrollRangeEstimate(Math.min(fromPosition, toPosition));
+                    mLayout.recyclePrefetchedViews();
+                    cancelPreparations();
+                    mLayout.clearPositionMeasurements(Math.min(fromPosition, toPosition));
+                    relayoutFrom(Math.min(fromPosition, toPosition),
+                            getMovedPosition(getFirstVisiblePosition(), fromPosition, toPosition));
+                }
             };
         }
     }
 
-    private void clearAllData() {
-        clearAllViews();
-        for (Column column : mColumns) {
-            column.mItems.clear();
-            column.mTop = 0;
-            column.mBottom = 0;
-            column.mPreviousItems.clear();
+    /**
+     * Sets how items can be checked, one of {@link #CHOICE_MODE_NONE},
+     * {@link #CHOICE_MODE_SINGLE} or {@link #CHOICE_MODE_MULTIPLE}. Checked items
+     * get their view set to checked if it is {@link Checkable}, and to activated if
+     * not. Changing the mode clears the checked items.
+     */
+    public void setChoiceMode(final int choiceMode) {
+        if (choiceMode != mChoiceMode) {
+            clearChoices();
+            mChoiceMode = choiceMode;
+        }
+    }
+
+    public int getChoiceMode() {
+        return mChoiceMode;
+    }
+
+    /**
+     * Checks or unchecks the item at the position. Only the view of that item, and
+     * of the item that gets unchecked in single choice mode, is updated.
+     */
+    public void setItemChecked(final int position, final boolean checked) {
+        if (mChoiceMode == CHOICE_MODE_NONE || checked == mCheckStates.get(position)) {
+            return;
+        }
+        if (checked && mChoiceMode == CHOICE_MODE_SINGLE && mCheckStates.size() > 0) {
+            int checkedPosition = mCheckStates.keyAt(0);
+            mCheckStates.clear();
+            updateCheckState(checkedPosition);
+        }
+        if (checked) {
+            mCheckStates.put(position, true);
+        } else {
+            mCheckStates.delete(position);
         }
-        mItemViewCache.clear();
+        checkStatesChanged();
+        updateCheckState(position);
+    }
+
+    public boolean isItemChecked(final int position) {
+        return mCheckStates.get(position);
     }
 
-    private void clearAllViews() {
-        for (Column column : mColumns) {
-            for (Item item : column.mItems) {
-                removeItemView(item);
+    public int getCheckedItemCount() {
+        return mCheckStates.size();
+    }
+
+    /**
+     * Returns the checked item in single choice mode, or {@link #INVALID_POSITION}
+     * if there is none.
+     */
+    public int getCheckedItemPosition() {
+        if (mChoiceMode == CHOICE_MODE_SINGLE && mCheckStates.size() == 1) {
+            return mCheckStates.keyAt(0);
+        }
+        return INVALID_POSITION;
+    }
+
+    /**
+     * Returns the checked positions, only positions that are checked are in the
+     * array. The array is owned by the list and changes with the checked items.
+     */
+    public SparseBooleanArray getCheckedItemPositions() {
+        return mCheckStates;
+    }
+
+    /**
+     * Returns the ids of the checked items if the adapter has stable ids. The array
+     * is reused until the checked items change, so it must not be modified.
+     */
+    public long[] getCheckedItemIds() {
+        if (mAdapter == null || !mAdapter.hasStableIds()) {
+            return NO_IDS;
+        }
+        if (mCheckedIdsDirty) {
+            int size = mCheckStates.size();
+            if (mCheckedIds.length != size) {
+                mCheckedIds = size == 0 ? NO_IDS : new long[size];
+            }
+            for (int i = 0; i < size; i++) {
+                mCheckedIds[i] = mAdapter.getItemId(mCheckStates.keyAt(i));
             }
+            mCheckedIdsDirty = false;
+        }
+        return mCheckedIds;
+    }
+
+    public void clearChoices() {
+        while (mCheckStates.size() > 0) {
+            int position = mCheckStates.keyAt(mCheckStates.size() - 1);
+            mCheckStates.delete(position);
+            updateCheckState(position);
+        }
+        checkStatesChanged();
+    }
+
+    // Forgets the checked items without updating their views
+    private void clearCheckStates() {
+        mCheckStates.clear();
+        checkStatesChanged();
+    }
+
+    // Marks the checked ids as changed, and looks them up right away if the adapter has
+    // stable ids so that they are the ids from before the next data change
+    private void checkStatesChanged() {
+        mCheckedIdsDirty = true;
+        if (mAdapter != null && mAdapter.hasStableIds()) {
+            getCheckedItemIds();
+        }
+    }
+
+    // Moves the checked items to where the items with their ids are after a data
+    // change, looking close to the old positions like ListView. The items that are
+    // not found are unchecked.
+    private void confirmCheckedPositionsById() {
+        int size = mCheckStates.size();
+        if (size == 0) {
+            return;
+        }
+        long[] ids = mCheckedIds;
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = mCheckStates.keyAt(i);
+        }
+        mCheckStates.clear();
+        for (int i = 0; i < size; i++) {
+            int position = findPositionOfId(ids[i], positions[i], CHECK_POSITION_SEARCH_DISTANCE);
+            if (position != INVALID_POSITION) {
+                mCheckStates.put(position, true);
+            }
+        }
+        checkStatesChanged();
+    }
+
+    // Removes the checked positions at and after the given position
+    private void removeCheckStatesFrom(final int position) {
+        for (int i = mCheckStates.size() - 1; i >= 0 && mCheckStates.keyAt(i) >= position; i--) {
+            mCheckStates.delete(mCheckStates.keyAt(i));
+        }
+        checkStatesChanged();
+    }
+
+    // Moves the checked positions after items have been inserted, or removed if the
+    // count is negative, at the given position
+    private void offsetCheckStates(final int positionStart, final int itemCount) {
+        int size = mCheckStates.size();
+        if (size == 0 || mCheckStates.keyAt(size - 1) < positionStart) {
+            return;
+        }
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = mCheckStates.keyAt(i);
         }
+        mCheckStates.clear();
+        for (int i = 0; i < size; i++) {
+            int position = positions[i];
+            if (position >= positionStart) {
+                if (position < positionStart - itemCount) {
+                    // the item was removed
+                    continue;
+                }
+                position += itemCount;
+            }
+            mCheckStates.put(position, true);
+        }
+        checkStatesChanged();
+    }
+
+    // Updates the view of the item at the position, if it is in the list
+    private void updateCheckState(final int position) {
+        ColumnLayout.Item<View> item = mLayout.findItem(position);
+        if (item != null) {
+            applyCheckState(item.mView, position);
+        }
+    }
+
+    private void applyCheckState(final View view, final int position) {
+        if (mChoiceMode == CHOICE_MODE_NONE && !mCheckStatesApplied) {
+            return;
+        }
+        mCheckStatesApplied = true;
+        boolean checked = mCheckStates.get(position);
+        if (view instanceof Checkable) {
+            ((Checkable) view).setChecked(checked);
+        } else {
+            view.setActivated(checked);
+        }
+    }
+
+    private void clearAllData() {
+        mLayout.clear();
         removeAllViewsInLayout();
+        cancelPreparations();
     }
 
     @Override
@@ -220,37 +832,46 @@ public class ColumnListView extends AdapterView<ListAdapter> {
         return null;
     }
 
+    /**
+     * Scrolls the list so that the item at the given position is at the top. Only
+     * the items that end up on screen are added to the list, the items above it are
+     * not bound or measured. The ones that have never been laid out are placed with
+     * an estimated height until they are shown.
+     */
     @Override
     public void setSelection(final int position) {
+        mPendingSelection = position;
+        mPendingSelectionOffset = 0;
+        requestLayout();
     }
 
     @Override
     protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
+        mLayout.setSize(h, getPaddingTop(), getPaddingBottom());
         updateColumnDimensions(w);
     }
 
     private void updateColumnDimensions(int width) {
         width -= getPaddingLeft() + getPaddingRight();
-        mColumnWidth = (width - (mColumns.size() + 1) * mPadding) / mColumns.size();
-        int columnLeft = mPadding;
-        for (Column column : mColumns) {
-            column.mLeft = columnLeft + getPaddingLeft();
-            columnLeft += mColumnWidth + mPadding;
+        int columnWidth = (width - (mLayout.getNumberOfColumns() + 1) * mLayout.getPadding()) / mLayout.getNumberOfColumns();
+        if (columnWidth != mLayout.getColumnWidth()) {
+            // the items will get other heights, and so other places in the columns, so
+            // the list is laid out again with the first item on screen where it is
+            ColumnLayout.Item<View> firstItem = mLayout.getFirstVisibleItem();
+            if (firstItem != null && mPendingSelection == INVALID_POSITION) {
+                mPendingSelection = firstItem.mPosition;
+                mPendingSelectionOffset = mLayout.getOffset(firstItem);
+            }
         }
+        mLayout.setColumnDimensions(columnWidth, getPaddingLeft());
     }
 
     @Override
     protected void onMeasure(final int widthMeasureSpec, final int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
         updateColumnDimensions(getMeasuredWidth());
-        for (Column column : mColumns) {
-            for (Item item : column.mItems) {
-                if (item.mView != null) {
-                    measureView(item.mView);
-                }
-            }
-        }
+        mLayout.measureItems();
     }
 
     @Override
@@ -258,161 +879,633 @@ public class ColumnListView extends AdapterView<ListAdapter> {
         if (mAdapter == null) {
             return;
         }
+        mLayout.setSize(bottom - top, getPaddingTop(), getPaddingBottom());
+        // a layout pass fills everything that it needs
+        mLayout.setFillDeadline(Long.MAX_VALUE);
         if (mReloadViews) {
             mReloadViews = false;
-            reloadViews();
+            mChangedStart = INVALID_POSITION;
+            mChangedEnd = INVALID_POSITION;
+            reloadChangedViews();
+        }
+        if (mChangedStart != INVALID_POSITION) {
+            mLayout.rebindItems(mChangedStart, mChangedEnd);
+            mChangedStart = INVALID_POSITION;
+            mChangedEnd = INVALID_POSITION;
+        }
+        if (mLayoutCacheLoad != null) {
+            if (mLayoutCacheLoad.isDone()) {
+                useLayoutCache();
+            } else if (getChildCount() == 0 && SystemClock.uptimeMillis() < mLayoutCacheDeadline) {
+                // hold back the first fill for a moment, so that the list can be shown
+                // where it was left rather than at the top
+                return;
+            } else {
+                // too late, the list is filled from the top
+                mLayoutCacheLoad.cancel(true);
+                mLayoutCacheLoad = null;
+            }
+        }
+        if (mPendingState != null && mAdapter.getCount() > 0) {
+            // the items may be loaded later, so the state waits for the first of them
+            restoreLayout(mPendingState);
+            mPendingState = null;
+        }
+        if (mPendingSelection != INVALID_POSITION) {
+            int position = mPendingSelection;
+            mPendingSelection = INVALID_POSITION;
+            mLayout.layoutFromPosition(position, mPendingSelectionOffset);
+        }
+        mLayout.fillList();
+
+        // recycle the views of items that are gone after a data change
+        mLayout.recycleStableIdScrap();
+        mLayout.getRecycleBin().setCapped(true);
+        schedulePreparations();
+        reportScroll();
+
+        if (mWarmUpPending && getChildCount() > 0) {
+            mWarmUpPending = false;
+            startWarmUp();
+        }
+    }
+
+    @Override
+    protected void dispatchDraw(final Canvas canvas) {
+        super.dispatchDraw(canvas);
+        // the drawing time is the frame time of the Choreographer, in milliseconds
+        mLastFrameTimeNanos = getDrawingTime() * 1000000;
+        if (mTimeToFirstFrame < 0 && mAdapter != null && getChildCount() > 0) {
+            mTimeToFirstFrame = (System.nanoTime() - mAdapterSetTime) / 1000000f;
+        }
+        if (mFrameMetrics != null) {
+            long now = System.nanoTime();
+            mFrameMetrics.mFrameIntervalNanos = mLastFrameDrawTime == 0 ? 0 : now - mLastFrameDrawTime;
+            mLastFrameDrawTime = now;
+            mOnFrameMetricsListener.onFrameMetrics(this, mFrameMetrics);
+            mFrameMetrics.reset();
+        }
+    }
+
+    /**
+     * Sets a listener that gets the metrics of every frame, or null to stop measuring.
+     */
+    public void setOnFrameMetricsListener(final OnFrameMetricsListener onFrameMetricsListener) {
+        mOnFrameMetricsListener = onFrameMetricsListener;
+        if (onFrameMetricsListener == null) {
+            mFrameMetrics = null;
+        } else if (mFrameMetrics == null) {
+            mFrameMetrics = new FrameMetrics();
+            mLastFrameDrawTime = 0;
+        }
+        mLayout.setFrameMetrics(mFrameMetrics);
+    }
+
+    /**
+     * Sets a trace to record the touch events that the list handles to, or null to
+     * stop recording. The trace can be written to a file and replayed to reproduce
+     * a scroll.
+     */
+    public void setScrollTrace(final ScrollTrace scrollTrace) {
+        mScrollTrace = scrollTrace;
+        if (scrollTrace != null) {
+            scrollTrace.setTouchSlop(mTouchSlop);
         }
-        fillList();
     }
 
-    private void reloadViews() {
-        for (Column column : mColumns) {
-            int top = column.mTop + mPadding;
-            for (Item item : column.mItems) {
-                // remove the old view
-                removeItemView(item);
+    @Override
+    public Parcelable onSaveInstanceState() {
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        ColumnLayout.Item<View> firstItem = mLayout.getFirstVisibleItem();
+        if (mPendingState != null) {
+            // the list hasn't been laid out where the state was restored to yet
+            state.mFirstPosition = mPendingState.mFirstPosition;
+            state.mFirstOffset = mPendingState.mFirstOffset;
+            state.mColumnWidth = mPendingState.mColumnWidth;
+            state.mLayout = mPendingState.mLayout;
+        } else if (firstItem != null) {
+            state.mFirstPosition = firstItem.mPosition;
+            state.mFirstOffset = mLayout.getOffset(firstItem);
+            // the layout down to the last item on screen, so that the list can be laid
+            // out from the first item without measuring, of at most the positions just
+            // above the items on screen and what the columns look like above those
+            int count = getLastVisiblePosition() + 1;
+            state.mColumnWidth = mLayout.getColumnWidth();
+            state.mLayout = mLayout.getLayoutModel().save(Math.max(0, count - MAX_SAVED_POSITIONS), count);
+        }
+        state.mCheckedPositions = new int[mCheckStates.size()];
+        for (int i = 0; i < mCheckStates.size(); i++) {
+            state.mCheckedPositions[i] = mCheckStates.keyAt(i);
+        }
+        return state;
+    }
 
-                // load the new one
-                item.mView = getView(item.mPosition);
+    @Override
+    public void onRestoreInstanceState(final Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+
+        clearCheckStates();
+        for (int i = 0; i < savedState.mCheckedPositions.length; i++) {
+            mCheckStates.put(savedState.mCheckedPositions[i], true);
+        }
+        checkStatesChanged();
+        if (savedState.mFirstPosition != INVALID_POSITION) {
+            mPendingState = savedState;
+        }
+        requestLayout();
+    }
+
+    // Lays out the list from the first item of the restored state, or from the last
+    // item if there are fewer items now. The saved layout of the items above it is
+    // used if it was made for the same column width, which means that only the items
+    // on screen have to be bound and measured.
+    private void restoreLayout(final SavedState state) {
+        int count = mAdapter.getCount();
+        if (state.mLayout != null && state.mColumnWidth == mLayout.getColumnWidth()
+                && mLayout.getLayoutModel().getCount() <= state.mFirstPosition) {
+            if (mLayout.getLayoutModel().restore(state.mLayout)) {
+                // the adapter may have fewer items now
+                mLayout.getLayoutModel().truncate(count);
+                mLayout.recordLaidOutIds(0);
+                mLayout.clearScrollRangeEstimate(0);
+            }
+        }
+        if (mPendingSelection == INVALID_POSITION) {
+            if (state.mFirstPosition < count) {
+                mPendingSelection = state.mFirstPosition;
+                mPendingSelectionOffset = state.mFirstOffset;
+            } else {
+                mPendingSelection = count - 1;
+                mPendingSelectionOffset = 0;
+            }
+        }
+    }
+
+    /**
+     * Sets a file to keep the layout of the list in between runs, so that a list with
+     * a lot of items can be shown where it was left on a cold start without measuring
+     * the items above that place. The file is only used if it was saved for the same
+     * data version and column width, so the version should change whenever the items
+     * or their heights do.
+     *
+     * @param file the file, or null to not use a layout cache
+     * @param dataVersion the version of the data of the adapter
+     */
+    public void setLayoutCache(final File file, final long dataVersion) {
+        mLayoutCache = file != null ? new LayoutCache(file, dataVersion) : null;
+        startLayoutCacheLoad();
+        requestLayout();
+    }
 
-                // add, measure and layout the new view
-                addViewToLayout(item.mView);
-                measureView(item.mView);
-                layoutItem(column, item, top);
+    /**
+     * Writes the layout of the list and the first item on screen to the layout cache
+     * file. This writes four bytes per item that has been laid out, so it should be
+     * called when the list is going away, such as in onStop, rather than while it is
+     * scrolled.
+     *
+     * @return false if there is no layout cache or it could not be written
+     */
+    public boolean saveLayoutCache() {
+        ColumnLayout.Item<View> firstItem = mLayout.getFirstVisibleItem();
+        if (mLayoutCache == null || firstItem == null) {
+            return false;
+        }
+        int firstOffset = mLayout.getOffset(firstItem);
+        try {
+            ColumnLayoutModel layoutModel = mLayout.getLayoutModel();
+            mLayoutCache.save(layoutModel, layoutModel.getCount(), mLayout.getColumnWidth(), mLayout.getPadding(),
+                    firstItem.mPosition, firstOffset);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-                top += item.mView.getHeight() + mPadding;
+    // Starts loading the layout cache on a background thread, if there is one and an
+    // adapter to use it for, and nothing is shown yet. The list is laid out again
+    // when the load is done, or when the first layout has waited long enough for it
+    private void startLayoutCacheLoad() {
+        if (mLayoutCacheLoad != null) {
+            // the load can't be stopped, but what it loads is its own and is dropped
+            mLayoutCacheLoad.cancel(true);
+            mLayoutCacheLoad = null;
+            removeCallbacks(mLayoutCacheRunnable);
+        }
+        if (mLayoutCache == null || mAdapter == null || getChildCount() > 0) {
+            return;
+        }
+        final LayoutCache layoutCache = mLayoutCache;
+        final int numberOfColumns = mLayout.getNumberOfColumns();
+        mLayoutCacheLoad = new FutureTask<LayoutCache.Loaded>(new Callable<LayoutCache.Loaded>() {
+            @Override
+            public LayoutCache.Loaded call() {
+                return layoutCache.load(numberOfColumns);
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (!isCancelled()) {
+                    post(mLayoutCacheRunnable);
+                }
             }
+        };
+        mLayoutCacheDeadline = SystemClock.uptimeMillis() + LAYOUT_CACHE_WAIT_MILLIS;
+        postDelayed(mLayoutCacheRunnable, LAYOUT_CACHE_WAIT_MILLIS);
+        new Thread(mLayoutCacheLoad, "ColumnListView layout cache").start();
+    }
+
+    // Replaces the layout model with the one loaded from the layout cache if nothing
+    // has been laid out yet and it was made for the same column width and padding,
+    // and shows the list where it was when the cache was saved
+    private void useLayoutCache() {
+        FutureTask<LayoutCache.Loaded> load = mLayoutCacheLoad;
+        mLayoutCacheLoad = null;
+        removeCallbacks(mLayoutCacheRunnable);
+        LayoutCache.Loaded loaded;
+        try {
+            loaded = load.get();
+        } catch (ExecutionException e) {
+            return;
+        } catch (InterruptedException e) {
+            // can't happen, the load is done
+            return;
+        }
+        int count = mAdapter.getCount();
+        if (loaded == null || mLayout.getLayoutModel().getCount() > 0 || count == 0) {
+            return;
+        }
+        if (loaded.mColumnWidth != mLayout.getColumnWidth() || loaded.mPadding != mLayout.getPadding()) {
+            return;
+        }
+        loaded.mLayoutModel.truncate(count);
+        mLayout.setLayoutModel(loaded.mLayoutModel);
+        mLayout.recordLaidOutIds(0);
+        // a restored state or a selection is newer than the cache
+        if (mPendingState == null && mPendingSelection == INVALID_POSITION
+                && loaded.mFirstPosition < mLayout.getLayoutModel().getCount()) {
+            mPendingSelection = loaded.mFirstPosition;
+            mPendingSelectionOffset = loaded.mFirstOffset;
         }
     }
 
+    /**
+     * The state of a {@link ColumnListView}: the first item on screen and its offset,
+     * the columns and heights of the items down to the last one on screen, and the
+     * checked positions.
+     */
+    static class SavedState extends BaseSavedState {
+
+        // The first position on screen, or INVALID_POSITION if nothing was shown
+        int mFirstPosition = INVALID_POSITION;
+
+        // The distance from the top of the list to the first position
+        int mFirstOffset;
+
+        // The width of the columns that the layout was saved for
+        int mColumnWidth;
+
+        // The packed layout model down to the last position shown, or null if nothing was shown
+        byte[] mLayout;
+
+        // The checked positions
+        int[] mCheckedPositions;
+
+        SavedState(final Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(final Parcel in) {
+            super(in);
+            mFirstPosition = in.readInt();
+            mFirstOffset = in.readInt();
+            mColumnWidth = in.readInt();
+            mLayout = in.createByteArray();
+            mCheckedPositions = in.createIntArray();
+        }
+
+        @Override
+        public void writeToParcel(final Parcel out, final int flags) {
+            super.writeToParcel(out, flags);
+            out.writeInt(mFirstPosition);
+            out.writeInt(mFirstOffset);
+            out.writeInt(mColumnWidth);
+            out.writeByteArray(mLayout);
+            out.writeIntArray(mCheckedPositions);
+        }
 
-    private void fillList() {
-        fillListDown();
-        fillListUp();
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(final Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(final int size) {
+                return new SavedState[size];
+            }
+        };
     }
 
-    private void fillListDown() {
-        int nextPosition = getLastVisiblePosition() + 1;
-        Column column = getNextColumnDown();
-        while (column != null && nextPosition < mAdapter.getCount()) {
-            Item item = getItemFromAdapter(nextPosition);
-            addItemToColumnDown(column, item);
-            column = getNextColumnDown();
-            nextPosition++;
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        WindowManager windowManager = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        if (refreshRate >= MIN_REFRESH_RATE) {
+            mFrameIntervalNanos = (long) (1000000000 / refreshRate);
+        } else {
+            mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
         }
     }
 
-    private void fillListUp() {
-        Column column = getNextColumnUp();
-        int nextPosition = -1;
-        if (column != null && !column.mPreviousItems.isEmpty()) {
-            nextPosition = column.mPreviousItems.remove(0);
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        Looper.myQueue().removeIdleHandler(mWarmUp);
+        mWarmUp.mAdded = false;
+
+        // nothing should keep running, or keep the list alive, once it is gone
+        mFlingRunnable.stop();
+        if (mScrollState == OnScrollListener.SCROLL_STATE_FLING) {
+            setScrollState(OnScrollListener.SCROLL_STATE_IDLE);
         }
-        while (column != null &&  nextPosition >= 0) {
-            Item item = getItemFromAdapter(nextPosition);
-            addItemToColumnUp(column, item);
-            column = getNextColumnUp();
+        removeCallbacks(mPrefetchRunnable);
+        mPrefetchScheduled = false;
+        cancelPreparations();
+        mLastFrameTimeNanos = 0;
+    }
 
-            if (column != null && !column.mPreviousItems.isEmpty()) {
-                nextPosition = column.mPreviousItems.remove(0);
-            } else {
-                nextPosition = -1;
+    // Reloads the list after a data change. With stable ids the layout is kept up to
+    // the first position whose id changed, and the list is laid out again from there
+    // with the first item on screen where it was, at its new position, reusing the
+    // views of the items that just moved. Without them every item may have changed,
+    // so the items on screen are just bound again
+    private void reloadChangedViews() {
+        if (!mAdapter.hasStableIds()) {
+            mLayout.reloadViews();
+            return;
+        }
+        int count = mAdapter.getCount();
+        int laidOutCount = Math.min(count, mLayout.getLayoutModel().getCount());
+        int firstChangedPosition = laidOutCount;
+        for (int position = 0; position < laidOutCount; position++) {
+            if (mAdapter.getItemId(position) != mLayout.getLaidOutId(position)) {
+                firstChangedPosition = position;
+                break;
             }
         }
+
+        ColumnLayout.Item<View> firstItem = mLayout.getFirstVisibleItem();
+        int lastVisiblePosition = getLastVisiblePosition();
+        if (firstItem == null || firstChangedPosition > lastVisiblePosition) {
+            // nothing on screen or above it changed, but what comes after it might have
+            mLayout.getLayoutModel().truncate(firstChangedPosition);
+            return;
+        }
+
+        int firstPosition = findPositionOfId(firstItem.mId, firstItem.mPosition, Integer.MAX_VALUE);
+        if (firstPosition == INVALID_POSITION) {
+            // the first item is gone, show what took its place
+            firstPosition = Math.min(firstItem.mPosition, count - 1);
+        }
+        mLayout.setKeepViewsById(true);
+        relayoutFrom(firstChangedPosition, firstPosition);
+        mLayout.setKeepViewsById(false);
     }
 
-    private Column getNextColumnDown() {
-        Column nextColumn = null;
-        int highestBottom = getHeight();
-        for (Column column : mColumns) {
-            if (column.mBottom < highestBottom) {
-                highestBottom = column.mBottom;
-                nextColumn = column;
+    // Returns the position of the item with the given id, looking outwards from the
+    // position it had before the data change for at most the given distance and a
+    // limited time like ListView, or INVALID_POSITION if it isn't found
+    private int findPositionOfId(final long id, final int oldPosition, final int maxDistance) {
+        int count = mAdapter.getCount();
+        if (count == 0) {
+            return INVALID_POSITION;
+        }
+        long endTime = SystemClock.uptimeMillis() + SYNC_MAX_DURATION_MILLIS;
+        int start = Math.min(oldPosition, count - 1);
+        for (int distance = 0; distance <= maxDistance && (start - distance >= 0 || start + distance < count);
+                distance++) {
+            if (start + distance < count && mAdapter.getItemId(start + distance) == id) {
+                return start + distance;
+            }
+            if (distance > 0 && start - distance >= 0 && mAdapter.getItemId(start - distance) == id) {
+                return start - distance;
+            }
+            if (SystemClock.uptimeMillis() > endTime) {
+                break;
             }
         }
-        return nextColumn;
+        return INVALID_POSITION;
     }
 
-    private Column getNextColumnUp() {
-        Column nextColumn = null;
-        int lowestTop = 0;
-        for (Column column : mColumns) {
-            if (column.mTop > lowestTop) {
-                lowestTop = column.mBottom;
-                nextColumn = column;
+    private void markItemsChanged(final int start, final int end) {
+        if (mChangedStart == INVALID_POSITION) {
+            mChangedStart = start;
+            mChangedEnd = end;
+        } else {
+            mChangedStart = Math.min(mChangedStart, start);
+            mChangedEnd = Math.max(mChangedEnd, end);
+        }
+        requestLayout();
+    }
+
+    // Returns the position that the item at the given position has after the item at
+    // the from position was moved to the to position
+    private static int getMovedPosition(final int position, final int fromPosition, final int toPosition) {
+        if (position == fromPosition) {
+            return toPosition;
+        } else if (fromPosition < position && toPosition >= position) {
+            return position - 1;
+        } else if (fromPosition > position && toPosition <= position) {
+            return position + 1;
+        }
+        return position;
+    }
+
+    // Throws away the layout of the given position and everything after it, since
+    // items have been inserted, removed or moved there. The first item on screen has
+    // the given position after the change, and stays where it is on screen
+    private void relayoutFrom(final int position, final int firstPosition) {
+        if (mChangedStart != INVALID_POSITION) {
+            // the changed items after the position are laid out again anyway
+            mChangedEnd = Math.min(mChangedEnd, position);
+            if (mChangedEnd <= mChangedStart) {
+                mChangedStart = INVALID_POSITION;
+                mChangedEnd = INVALID_POSITION;
             }
         }
-        return nextColumn;
+        mLayout.relayoutFrom(position, firstPosition);
+        requestLayout();
+        invalidate();
     }
 
-    @Override
-    public int getLastVisiblePosition() {
-        int lastPosition = -1;
-        for (Column column : mColumns) {
-            if (!column.mItems.isEmpty()) {
-                int lastPositionInColumn = column.mItems.get(column.mItems.size() - 1).mPosition;
-                if (lastPositionInColumn > lastPosition) {
-                    lastPosition = lastPositionInColumn;
-                }
+    // Handles items that have been inserted or removed after the positions that have
+    // been laid out, which only affects what is filled in after them and the items
+    // that are being prepared there
+    private void itemsChangedAfterLayout(final int positionStart) {
+        mLayout.clearPositionMeasurements(positionStart);
+        for (int i = mPreparations.size() - 1; i >= 0; i--) {
+            if (mPreparations.keyAt(i) >= positionStart) {
+                mPreparations.valueAt(i).cancel(true);
+                mPreparations.removeAt(i);
             }
         }
-        return lastPosition;
+        requestLayout();
+    }
+
+    @Override
+    public int getLastVisiblePosition() {
+        return toAdapterPosition(mLayout.getLastVisiblePosition());
     }
 
     @Override
     public int getFirstVisiblePosition() {
-        int firstPosition = Integer.MAX_VALUE;
-        for (Column column : mColumns) {
-            int firstPositionInColumn = column.mItems.get(0).mPosition;
-            if (firstPositionInColumn < firstPosition) {
-                firstPosition = firstPositionInColumn;
-            }
+        return toAdapterPosition(mLayout.getFirstVisiblePosition());
+    }
+
+    /**
+     * Returns the position of the first item in the column that is on screen, or
+     * {@link #INVALID_POSITION} if there is none.
+     */
+    public int getFirstVisiblePosition(final int column) {
+        return toAdapterPosition(mLayout.getFirstVisiblePosition(column));
+    }
+
+    /**
+     * Returns the position of the last item in the column that is on screen, or
+     * {@link #INVALID_POSITION} if there is none.
+     */
+    public int getLastVisiblePosition(final int column) {
+        return toAdapterPosition(mLayout.getLastVisiblePosition(column));
+    }
+
+    private static int toAdapterPosition(final int position) {
+        return position == ColumnLayoutModel.NO_POSITION ? INVALID_POSITION : position;
+    }
+
+    public int getColumnCount() {
+        return mLayout.getNumberOfColumns();
+    }
+
+    public void setOnScrollListener(final OnScrollListener onScrollListener) {
+        mOnScrollListener = onScrollListener;
+    }
+
+    /**
+     * Adds a listener for scroll changes that is called next to the one set with
+     * {@link #setOnScrollListener}, such as a {@link PagedListAdapter} that needs to
+     * know what is shown.
+     */
+    public void addOnScrollListener(final OnScrollListener onScrollListener) {
+        if (!mOnScrollListeners.contains(onScrollListener)) {
+            mOnScrollListeners.add(onScrollListener);
         }
-        return firstPosition;
     }
 
-    private Item getItemFromAdapter(final int position) {
-        Item item = new Item();
-        item.mView = getView(position);
-        item.mPosition = position;
-        item.mId = mAdapter.getItemId(position);
-        return item;
+    public void removeOnScrollListener(final OnScrollListener onScrollListener) {
+        mOnScrollListeners.remove(onScrollListener);
     }
 
-    private View getView(final int position) {
-        int viewType = mAdapter.getItemViewType(position);
-        View cachedView = getViewFromCache(viewType);
-        return mAdapter.getView(position, cachedView, this);
+    /**
+     * Returns one of the scroll states of {@link OnScrollListener}.
+     */
+    public int getScrollState() {
+        return mScrollState;
     }
 
-    private void addItemToColumnDown(final Column column, final Item item) {
-        addViewToLayout(item.mView);
-        measureView(item.mView);
-        int height = item.mView.getMeasuredHeight();
-        column.mItems.add(item);
+    /**
+     * Returns the speed of the list in pixels per second, positive when the list
+     * moves down.
+     */
+    public float getScrollVelocity() {
+        if (mTouchState == TouchState.SCROLLING && mVelocityTracker != null) {
+            mVelocityTracker.computeCurrentVelocity(1000);
+            return mVelocityTracker.getYVelocity();
+        }
+        return mFlingRunnable.getVelocity();
+    }
 
-        int top = column.mBottom + mPadding;
-        layoutItem(column, item, top);
+    private void setScrollState(final int scrollState) {
+        if (scrollState != mScrollState) {
+            if (scrollState == OnScrollListener.SCROLL_STATE_FLING && mInflationCountAtFirstFling < 0
+                    && mFlingRunnable.getVelocity() != 0) {
+                // only a fling counts, not the list snapping back after being pulled
+                mInflationCountAtFirstFling = mInflationCount;
+            } else if (mScrollState == OnScrollListener.SCROLL_STATE_FLING && mInflationCountAtFirstFling >= 0
+                    && mFirstFlingInflationCount < 0) {
+                mFirstFlingInflationCount = mInflationCount - mInflationCountAtFirstFling;
+            }
+            mScrollState = scrollState;
+            if (mOnScrollListener != null) {
+                mOnScrollListener.onScrollStateChanged(this, scrollState);
+            }
+            for (int i = mOnScrollListeners.size() - 1; i >= 0; i--) {
+                mOnScrollListeners.get(i).onScrollStateChanged(this, scrollState);
+            }
+        }
+    }
 
-        column.mBottom += height + mPadding;
+    private void reportScroll() {
+        if (mOnScrollListener == null && mOnScrollListeners.isEmpty()) {
+            return;
+        }
+        int firstVisiblePosition = getFirstVisiblePosition();
+        int lastVisiblePosition = getLastVisiblePosition();
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScroll(this, firstVisiblePosition, lastVisiblePosition);
+        }
+        for (int i = mOnScrollListeners.size() - 1; i >= 0; i--) {
+            mOnScrollListeners.get(i).onScroll(this, firstVisiblePosition, lastVisiblePosition);
+        }
     }
 
-    private void addItemToColumnUp(final Column column, final Item item) {
-        addViewToLayout(item.mView);
-        measureView(item.mView);
-        int height = item.mView.getMeasuredHeight();
-        column.mItems.add(0, item);
+    // Counts a view that the adapter returned, as created if it isn't the view it was
+    // given to reuse, and adds the time it took to the frame metrics
+    private void countBind(final View view, final View convertView, final long start) {
+        if (view != convertView) {
+            mInflationCount++;
+        }
+        if (mFrameMetrics != null) {
+            mFrameMetrics.mBindNanos += System.nanoTime() - start;
+            if (view != convertView) {
+                mFrameMetrics.mInflationCount++;
+            } else {
+                mFrameMetrics.mRecycledBindCount++;
+            }
+        }
+    }
 
-        column.mTop -= height + mPadding;
-        if (column == mColumns.get(0)) {
-            mListTopAtTouchStart -= height + mPadding;
+    // Gets the view of the position from the adapter, using its prepared data if it is ready
+    private View bindView(final int position, final View cachedView) {
+        if (mPreparations.size() > 0) {
+            FutureTask<Object> preparation = mPreparations.get(position);
+            if (preparation != null) {
+                mPreparations.remove(position);
+                if (preparation.isDone() && !preparation.isCancelled()) {
+                    try {
+                        return getPreparedView(position, preparation.get(), cachedView);
+                    } catch (ExecutionException e) {
+                        // bind it the usual way
+                    } catch (InterruptedException e) {
+                        // can't happen, the preparation is done
+                    }
+                } else {
+                    // don't wait for it, bind it the usual way
+                    preparation.cancel(true);
+                }
+            }
         }
-        int top = column.mTop + mPadding;
-        layoutItem(column, item, top);
+        return mAdapter.getView(position, cachedView, this);
     }
 
-    private void layoutItem(final Column column, final Item item, final int top) {
-        item.mView.layout(column.mLeft, top, column.mLeft + mColumnWidth, top + item.mView.getMeasuredHeight());
+    @SuppressWarnings("unchecked")
+    private View getPreparedView(final int position, final Object prepared, final View convertView) {
+        return ((PreparableListAdapter<Object>) mAdapter).getView(position, prepared, convertView, this);
     }
 
     private void addViewToLayout(final View view) {
@@ -423,13 +1516,19 @@ public class ColumnListView extends AdapterView<ListAdapter> {
         addViewInLayout(view, -1, params, true);
     }
 
-    private void measureView(final View view) {
+    // Measures the view for the width. A view whose height is known, from its layout
+    // params or from before, is measured at exactly that height, which lets it skip
+    // working out the height of its content
+    private void measureView(final View view, final int width, final int knownHeight) {
+        long start = mFrameMetrics != null ? System.nanoTime() : 0;
         ViewGroup.LayoutParams params = view.getLayoutParams();
 
-        int width = mColumnWidth;
         int widthMeasureSpec = MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY);
 
-        int height = params.height;
+        int height = params != null ? params.height : LayoutParams.WRAP_CONTENT;
+        if (height <= 0 && knownHeight != ColumnLayout.Host.UNKNOWN_HEIGHT) {
+            height = knownHeight;
+        }
         int heightMeasureSpec;
         if (height > 0) {
             heightMeasureSpec = MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY);
@@ -438,6 +1537,9 @@ public class ColumnListView extends AdapterView<ListAdapter> {
         }
 
         view.measure(widthMeasureSpec, heightMeasureSpec);
+        if (mFrameMetrics != null) {
+            mFrameMetrics.mMeasureNanos += System.nanoTime() - start;
+        }
     }
 
     @Override
@@ -446,6 +1548,10 @@ public class ColumnListView extends AdapterView<ListAdapter> {
             return false;
         }
 
+        if (mScrollTrace != null) {
+            mScrollTrace.add(event.getActionMasked(), event.getEventTime(), (int) event.getX(), (int) event.getY());
+        }
+
         boolean handled;
 
         switch (event.getActionMasked()) {
@@ -470,13 +1576,25 @@ public class ColumnListView extends AdapterView<ListAdapter> {
     }
 
     private boolean startTouch(MotionEvent event) {
+        // a restored state that is still waiting for its items is overridden by the user
+        mPendingState = null;
+        mFlingRunnable.stop();
+        if (mScrollState == OnScrollListener.SCROLL_STATE_FLING) {
+            // the list is caught and held
+            setScrollState(OnScrollListener.SCROLL_STATE_TOUCH_SCROLL);
+        }
         mTouchState = TouchState.PRESSED;
         mTouchDownX = (int) event.getX();
         mTouchDownY = (int) event.getY();
-        mListTopAtTouchStart = getListTop();
+        mLayout.startDrag();
         mVelocityTracker = VelocityTracker.obtain();
         mVelocityTracker.addMovement(event);
-        mTouchedItem = getTouchedItem((int) event.getX(), (int) event.getY());
+        ColumnLayout.Item<View> touchedItem = mLayout.findItemAt((int) event.getX(), (int) event.getY());
+        mTouchedView = touchedItem != null ? touchedItem.mView : null;
+        if (touchedItem != null) {
+            mTouchedPosition = touchedItem.mPosition;
+            mTouchedId = touchedItem.mId;
+        }
 
         // post a runnable that will set the touched view to pressed
         // it's done after a while since this might still be a scroll
@@ -492,8 +1610,8 @@ public class ColumnListView extends AdapterView<ListAdapter> {
     final private Runnable mSetPressedRunnable = new Runnable() {
         @Override
         public void run() {
-            if (mTouchedItem != null && mTouchedItem.mView != null) {
-                mTouchedItem.mView.setPressed(true);
+            if (mTouchedView != null) {
+                mTouchedView.setPressed(true);
             }
         }
     };
@@ -502,9 +1620,9 @@ public class ColumnListView extends AdapterView<ListAdapter> {
         @Override
         public void run() {
             OnItemLongClickListener onItemLongClickListener = getOnItemLongClickListener();
-            if (onItemLongClickListener != null) {
+            if (onItemLongClickListener != null && mTouchedView != null) {
                 boolean longPressConsumed = onItemLongClickListener.onItemLongClick(ColumnListView.this,
-                        mTouchedItem.mView, mTouchedItem.mPosition, mTouchedItem.mId);
+                        mTouchedView, mTouchedPosition, mTouchedId);
                 if (longPressConsumed) {
                     mTouchState = TouchState.LONG_PRESS;
                 }
@@ -513,20 +1631,6 @@ public class ColumnListView extends AdapterView<ListAdapter> {
         }
     };
 
-    private Item getTouchedItem(int x, int y) {
-        for (Column column : mColumns) {
-            if (x > column.mLeft && x < column.mLeft + mColumnWidth) {
-                for (Item item : column.mItems) {
-                    View view = item.mView;
-                    if (view.getTop() < y && view.getBottom() > y) {
-                        return item;
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
     private boolean handleTouchMove(MotionEvent event) {
         mVelocityTracker.addMovement(event);
         if (mTouchState == TouchState.PRESSED && hasMovedFarEnoughForScroll(event)) {
@@ -540,7 +1644,8 @@ public class ColumnListView extends AdapterView<ListAdapter> {
     private boolean hasMovedFarEnoughForScroll(MotionEvent event) {
         int x = (int) event.getX();
         int y = (int) event.getY();
-        if ((mTouchDownX - mTouchSlop < x && x < mTouchDownX + mTouchSlop) && (mTouchDownY - mTouchSlop < y && y < mTouchDownY + mTouchSlop)) {
+        if ((mTouchDownX - mTouchSlop < x && x < mTouchDownX + mTouchSlop)
+                && (mTouchDownY - mTouchSlop < y && y < mTouchDownY + mTouchSlop)) {
             return false;
         }
         return true;
@@ -549,153 +1654,194 @@ public class ColumnListView extends AdapterView<ListAdapter> {
     private void startScrolling(MotionEvent event) {
         removeCallbacks(mSetPressedRunnable);
         removeCallbacks(mLongPressRunnable);
-        if (mTouchedItem != null && mTouchedItem.mView != null) {
-            mTouchedItem.mView.setPressed(false);
+        if (mTouchedView != null) {
+            mTouchedView.setPressed(false);
         }
         mTouchDownX = (int) event.getX();
         mTouchDownY = (int) event.getY();
         mTouchState = TouchState.SCROLLING;
+        setScrollState(OnScrollListener.SCROLL_STATE_TOUCH_SCROLL);
     }
 
     private void handleTouchScroll(MotionEvent event) {
-        int listTop = (int) (mListTopAtTouchStart + (event.getY() - mTouchDownY));
-        scrollListTo(applyRubberBand(listTop));
+        scrollListTo(mLayout.getDragListTop(event.getY() - mTouchDownY));
     }
 
-    private int applyRubberBand(final int pos) {
-        float rubberbandFactor = mOverscroll ? mRubberbandFactor : 0;
-        if (isFirstItemShowing()) {
-            int topRubberbandPos = getTopSnapPos();
-            if (pos > topRubberbandPos) {
-                return (int) (topRubberbandPos + (pos - topRubberbandPos) * rubberbandFactor);
-            }
-        }
+    private void scrollListTo(final int listTop) {
+        mLayout.scrollListTo(listTop);
+        awakenScrollBars();
+        invalidate();
+        schedulePrefetch();
+        reportScroll();
+    }
 
-        if (isLastItemShowing()) {
-            int bottomRubberbandPos = getBottomSnapPos();
-            if (pos < bottomRubberbandPos) {
-                return (int) (bottomRubberbandPos + (pos - bottomRubberbandPos) * rubberbandFactor);
-            }
+    // Adds the items that didn't fit in the frame budget and binds the items ahead of
+    // scrolling once the current frame is done
+    private void schedulePrefetch() {
+        if (mPrefetchScheduled || mAdapter == null) {
+            return;
         }
-
-        return pos;
+        mPrefetchScheduled = true;
+        post(mPrefetchRunnable);
+        schedulePreparations();
     }
 
-    private void scrollListTo(final int listTop) {
-        offsetListTo(listTop);
-        removeNonVisibleViews();
-        fillList();
-        invalidate();
+    // Returns the direction that the list is scrolling in, 1 towards later positions
+    // and -1 towards earlier positions
+    private int getPrefetchDirection() {
+        if (mFlingRunnable.isRunning() && mFlingRunnable.getVelocity() != 0) {
+            // the list moves down when the velocity is positive, showing earlier positions
+            return mFlingRunnable.getVelocity() > 0 ? -1 : 1;
+        }
+        return mLayout.getScrollDirection();
     }
 
-    private void offsetListTo(int pos) {
-        int delta = pos - mColumns.get(0).mTop;
-        for (Column column : mColumns) {
-            column.mTop += delta;
-            column.mBottom += delta;
-            for (Item item : column.mItems) {
-                item.mView.offsetTopAndBottom(delta);
-            }
+    // Starts preparing the items that come after the list in the direction it scrolls
+    // in, and cancels the preparations of the items that are not coming anymore
+    private void schedulePreparations() {
+        if (mPreparationExecutor == null || !(mAdapter instanceof PreparableListAdapter)) {
+            return;
+        }
+        int lastPosition = getLastVisiblePosition();
+        if (lastPosition == INVALID_POSITION) {
+            return;
+        }
+        int firstPosition = getFirstVisiblePosition();
+        int window = Math.max(1, mLayout.getPrefetchCount()) * mLayout.getNumberOfColumns() * 2;
+        int start;
+        int end;
+        if (getPrefetchDirection() > 0) {
+            start = lastPosition + 1;
+            end = Math.min(mAdapter.getCount(), start + window);
+        } else {
+            start = Math.max(0, firstPosition - window);
+            end = firstPosition;
         }
-    }
 
-    private void removeNonVisibleViews() {
-        for (Column column : mColumns) {
-            while (!isTopItemVisible(column) && !isLastItemShowing() && column.mItems.size() > 1) {
-                removeTopItem(column);
+        for (int i = mPreparations.size() - 1; i >= 0; i--) {
+            int position = mPreparations.keyAt(i);
+            if (position < start || position >= end) {
+                mPreparations.valueAt(i).cancel(true);
+                mPreparations.removeAt(i);
             }
-
-            while (!isBottomItemVisible(column) && !isFirstItemShowing() && column.mItems.size() > 1) {
-                removeBottomItem(column);
+        }
+        for (int position = start; position < end; position++) {
+            if (mPreparations.get(position) == null && !mLayout.isPrefetched(position)) {
+                FutureTask<Object> preparation = new FutureTask<Object>(new Preparation(position));
+                mPreparations.put(position, preparation);
+                mPreparationExecutor.execute(preparation);
             }
         }
     }
 
-    private boolean isTopItemVisible(final Column column) {
-        return column.mItems.get(0).mView.getBottom() >= 0;
-    }
+    // Prepares an item on the preparation executor
+    private class Preparation implements Callable<Object> {
 
-    private boolean isBottomItemVisible(final Column column) {
-        return column.mItems.get(column.mItems.size() - 1).mView.getTop() <= getHeight() - getPaddingBottom();
-    }
+        // The position of the item
+        private final int mPosition;
+
+        // The adapter that the item belongs to
+        private final PreparableListAdapter<?> mPreparableAdapter;
 
-    private void removeTopItem(final Column column) {
-        Item item = column.mItems.remove(0);
-        column.mTop += item.mView.getHeight() + mPadding;
-        if (column == mColumns.get(0)) {
-            mListTopAtTouchStart += item.mView.getHeight() + mPadding;
+        Preparation(final int position) {
+            mPosition = position;
+            mPreparableAdapter = (PreparableListAdapter<?>) mAdapter;
         }
-        column.mPreviousItems.add(0, item.mPosition);
-        removeItemView(item);
-    }
 
-    private void removeBottomItem(final Column column) {
-        Item item = column.mItems.remove(column.mItems.size() - 1);
-        column.mBottom -= item.mView.getHeight() + mPadding;
-        removeItemView(item);
+        @Override
+        public Object call() {
+            return mPreparableAdapter.prepareItem(mPosition);
+        }
     }
 
-    private void removeItemView(final Item item) {
-        removeViewInLayout(item.mView);
-        addItemViewToCache(item);
-        item.mView = null;
+    private void cancelPreparations() {
+        for (int i = 0; i < mPreparations.size(); i++) {
+            mPreparations.valueAt(i).cancel(true);
+        }
+        mPreparations.clear();
     }
 
-    private boolean isLastItemShowing() {
-        for (Column column : mColumns) {
-            if (column.mItems.get(column.mItems.size() - 1).mPosition == mAdapter.getCount() - 1) {
-                return true;
-            }
+    // Adds the items that didn't fit in the frame budget, and binds and measures the
+    // next items in the direction that the list is scrolling in each column, in what
+    // is left of the frame
+    private void prefetch() {
+        mPrefetchScheduled = false;
+        if (mAdapter == null) {
+            return;
+        }
+        if (mLayout.prefetch(getPrefetchDirection(), getNextFrameTime())) {
+            invalidate();
         }
-        return false;
     }
 
-    private boolean isFirstItemShowing() {
-        for (Column column : mColumns) {
-            if (column.mItems.get(0).mPosition == 0) {
-                return true;
-            }
+    // Returns the time that the next frame starts at, counted in whole frame intervals
+    // from the frame time of the last frame that was drawn
+    private long getNextFrameTime() {
+        long now = System.nanoTime();
+        if (mLastFrameTimeNanos == 0 || mLastFrameTimeNanos > now) {
+            return now + mFrameIntervalNanos;
         }
-        return false;
+        long frames = (now - mLastFrameTimeNanos) / mFrameIntervalNanos + 1;
+        return mLastFrameTimeNanos + frames * mFrameIntervalNanos;
     }
 
     private boolean handleTouchUp(MotionEvent event) {
-        if (mTouchState == TouchState.PRESSED && mTouchedItem != null) {
-            handleItemClick(mTouchedItem);
+        if (mTouchState == TouchState.PRESSED && mTouchedView != null) {
+            handleItemClick();
         }
         endTouch();
         return true;
     }
 
-    private void handleItemClick(Item item) {
+    private void handleItemClick() {
+        View view = mTouchedView;
+        if (mChoiceMode == CHOICE_MODE_MULTIPLE) {
+            setItemChecked(mTouchedPosition, !mCheckStates.get(mTouchedPosition));
+        } else if (mChoiceMode == CHOICE_MODE_SINGLE) {
+            setItemChecked(mTouchedPosition, true);
+        }
+
         OnItemClickListener onItemClickListener = getOnItemClickListener();
         if (onItemClickListener != null) {
-            onItemClickListener.onItemClick(this, item.mView, item.mPosition, item.mId);
+            onItemClickListener.onItemClick(this, view, mTouchedPosition, mTouchedId);
         }
 
         // remove any runnable that will set pressed state
         removeCallbacks(mSetPressedRunnable);
 
-        if (item != null && item.mView != null) {
-            if (item.mView.isPressed()) {
+        if (view != null) {
+            if (view.isPressed()) {
                 // if it was already in pressed state, set it to not pressed
-                item.mView.setPressed(false);
+                view.setPressed(false);
             } else {
                 // if it was not in pressed state, set it to pressed and
                 // post a runnable that resets it after a short duration
                 // this way a click is always visible to the user
-                item.mView.setPressed(true);
-                final View view = item.mView;
-                postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        view.setPressed(false);
-                    }
-                }, ViewConfiguration.getPressedStateDuration());
+                view.setPressed(true);
+                if (mUnpressView != null) {
+                    removeCallbacks(mUnpressRunnable);
+                    mUnpressView.setPressed(false);
+                }
+                mUnpressView = view;
+                postDelayed(mUnpressRunnable, ViewConfiguration.getPressedStateDuration());
             }
         }
     }
 
+    // The view that was set to pressed on a click
+    private View mUnpressView;
+
+    // Runnable that resets the pressed state of a clicked view
+    final private Runnable mUnpressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mUnpressView != null) {
+                mUnpressView.setPressed(false);
+                mUnpressView = null;
+            }
+        }
+    };
+
     private boolean endTouch() {
         removeCallbacks(mLongPressRunnable);
         removeCallbacks(mSetPressedRunnable);
@@ -704,204 +1850,329 @@ public class ColumnListView extends AdapterView<ListAdapter> {
         if (mTouchState == TouchState.LONG_PRESS) {
             velocity = 0;
         }
-        new FlingRunnable(velocity).start();
+        mFlingRunnable.start(velocity);
 
         mVelocityTracker.recycle();
         mVelocityTracker = null;
 
         mTouchState = TouchState.RESTING;
+        if (mScrollState == OnScrollListener.SCROLL_STATE_TOUCH_SCROLL) {
+            setScrollState(mFlingRunnable.isRunning()
+                    ? OnScrollListener.SCROLL_STATE_FLING : OnScrollListener.SCROLL_STATE_IDLE);
+        }
         return true;
     }
 
-    private void addItemViewToCache(final Item item) {
-        int itemViewType = mAdapter.getItemViewType(item.mPosition);
-        ArrayList<View> viewCacheForType = mItemViewCache.get(itemViewType);
-        if (viewCacheForType == null) {
-            viewCacheForType = new ArrayList<View>();
-            mItemViewCache.put(itemViewType, viewCacheForType);
-        }
-        viewCacheForType.add(item.mView);
+    /**
+     * Sets the maximum number of views of the given view type that are kept for reuse
+     * after they have been scrolled out of the list. Views that don't fit are dropped.
+     * Setting 0 turns off recycling of that view type.
+     */
+    public void setMaxRecycledViews(final int viewType, final int max) {
+        mLayout.getRecycleBin().setMaxScrap(viewType, max);
     }
 
-    private View getViewFromCache(final int itemViewType) {
-        ArrayList<View> viewCacheForType = mItemViewCache.get(itemViewType);
-        if (viewCacheForType != null && !viewCacheForType.isEmpty()) {
-            return viewCacheForType.remove(0);
-        }
-        return null;
+    // The number of times a recycled view could be reused
+    public int getRecycledViewHits() {
+        return mLayout.getRecycleBin().getHits();
     }
 
-
-    private int getTopSnapPos() {
-        return getPaddingTop();
+    // The number of times there was no recycled view to reuse
+    public int getRecycledViewMisses() {
+        return mLayout.getRecycleBin().getMisses();
     }
 
-    private int getBottomSnapPos() {
-        int listHeight = getListHeight();
-        if (listHeight < getHeight() - getPaddingBottom()) {
-            return mPadding;
-        }
-        return getHeight() - getPaddingBottom() - getListHeight();
+    // The number of views that were dropped since there was no room for them
+    public int getRecycledViewEvictions() {
+        return mLayout.getRecycleBin().getEvictions();
     }
 
+    public void resetRecycledViewStats() {
+        mLayout.getRecycleBin().resetStats();
+    }
 
-    private int getListHeight() {
-        int listTop = getListTop();
-        int listHeight = 0;
-        for (Column column : mColumns) {
-            int columnHeight = column.mBottom - listTop;
-            if (columnHeight > listHeight) {
-                listHeight = columnHeight;
-            }
+    /**
+     * Fills the recycle bin, when the main thread is idle after the first layout,
+     * with about as many views as it takes to cover the list once more. The views
+     * are split between the view types like the items that are shown, so that the
+     * first fling can reuse views instead of creating them.
+     */
+    public void warmUpRecycledViews() {
+        mWarmUpPending = true;
+        if (getChildCount() > 0) {
+            mWarmUpPending = false;
+            startWarmUp();
         }
-        return listHeight + mPadding;
     }
 
-    private int getListTop() {
-        return mColumns.get(0).mTop;
+    /**
+     * Creates views of the given view type for the recycle bin, when the main thread
+     * is idle, until it holds the given number of views.
+     *
+     * @throws IllegalArgumentException if the view type is not one of the view types
+     * of the adapter
+     */
+    public void warmUpRecycledViews(final int viewType, final int count) {
+        if (mAdapter == null) {
+            return;
+        }
+        if (viewType < 0 || viewType >= mAdapter.getViewTypeCount()) {
+            throw new IllegalArgumentException("View type " + viewType + " is not one of the "
+                    + mAdapter.getViewTypeCount() + " view types of the adapter");
+        }
+        ensureWarmUpCounts();
+        mWarmUpCounts[viewType] = Math.min(count, mLayout.getRecycleBin().getMaxScrap(viewType));
+        mWarmUp.add();
     }
 
-    private class FlingRunnable implements Runnable {
-
-        // The minimum speed of a fling move to start a fling scroll
-        public static final int SPEED_THRESHOLD = 200;
-
-        // The maximum time between frames in milliseconds
-        public static final int MAX_FRAME_DELAY = 50;
+    // The time from setting the adapter until the first frame with items was drawn,
+    // in milliseconds, or -1 if that hasn't happened yet
+    public float getTimeToFirstFrame() {
+        return mTimeToFirstFrame;
+    }
 
-        // The wanted time between frames in milliseconds
-        public static final int WANTED_FRAME_DELAY = 10;
+    // The number of views that were created during the first fling, or -1 if it
+    // isn't over yet
+    public int getFirstFlingInflationCount() {
+        return mFirstFlingInflationCount;
+    }
 
-        // The minimum amount of acceleration to keep flinging
-        public static final int ACCELERATION_THERSHOLD = 20;
+    // Works out how many views of each view type are needed to cover the list from
+    // the items that are shown
+    private void startWarmUp() {
+        if (mAdapter == null) {
+            return;
+        }
+        int itemCount = 0;
+        int heights = 0;
+        ensureWarmUpCounts();
+        for (int viewType = 0; viewType < mWarmUpCounts.length; viewType++) {
+            mWarmUpCounts[viewType] = 0;
+        }
+        for (int i = 0; i < mLayout.getNumberOfColumns(); i++) {
+            ColumnLayout.Column<View> column = mLayout.getColumn(i);
+            for (int j = 0; j < column.mItems.size(); j++) {
+                ColumnLayout.Item<View> item = column.mItems.get(j);
+                itemCount++;
+                heights += item.mHeight;
+                if (item.mViewType >= 0 && item.mViewType < mWarmUpCounts.length) {
+                    mWarmUpCounts[item.mViewType]++;
+                }
+            }
+        }
+        if (itemCount == 0) {
+            return;
+        }
+        int typicalHeight = heights / itemCount + mLayout.getPadding();
+        int neededCount = (getHeight() / Math.max(1, typicalHeight) + 1) * mLayout.getNumberOfColumns();
+        for (int viewType = 0; viewType < mWarmUpCounts.length; viewType++) {
+            int count = (mWarmUpCounts[viewType] * neededCount + itemCount - 1) / itemCount;
+            mWarmUpCounts[viewType] = Math.min(count, mLayout.getRecycleBin().getMaxScrap(viewType));
+        }
+        mWarmUp.add();
+    }
 
-        // The current velocity of the fling
-        private float mVelocity;
+    private void ensureWarmUpCounts() {
+        if (mWarmUpCounts == null) {
+            mWarmUpCounts = new int[mAdapter.getViewTypeCount()];
+        }
+    }
 
-        // The last time the fling was updated
-        private long mLastTime;
+    // Returns a position of the given view type, preferring the items that are shown,
+    // or INVALID_POSITION if none is found
+    private int findPositionOfViewType(final int viewType) {
+        for (int i = 0; i < mLayout.getNumberOfColumns(); i++) {
+            ColumnLayout.Column<View> column = mLayout.getColumn(i);
+            for (int j = 0; j < column.mItems.size(); j++) {
+                ColumnLayout.Item<View> item = column.mItems.get(j);
+                if (item.mViewType == viewType) {
+                    return item.mPosition;
+                }
+            }
+        }
+        int count = Math.min(mAdapter.getCount(), WARM_UP_SEARCH_LIMIT);
+        for (int position = 0; position < count; position++) {
+            if (mAdapter.getItemViewType(position) == viewType) {
+                return position;
+            }
+        }
+        return INVALID_POSITION;
+    }
 
-        // The point to snap the top of the list to
-        private int mSnapPoint;
+    // Creates one view for the recycle bin each time the main thread is idle, so that
+    // input is never held up by more than one view
+    private class WarmUp implements MessageQueue.IdleHandler {
 
-        // True if we should snap the top of the list to the snap point
-        private boolean mSnapping;
+        // True if the idle handler is added
+        private boolean mAdded;
 
-        public FlingRunnable(float velocity) {
-            if (Math.abs(velocity) > SPEED_THRESHOLD) {
-                mVelocity = velocity;
-            } else {
-                mVelocity = 0;
+        void add() {
+            if (!mAdded) {
+                mAdded = true;
+                Looper.myQueue().addIdleHandler(this);
             }
-            mLastTime = AnimationUtils.currentAnimationTimeMillis();
-        }
-
-        public void start() {
-            removeCallbacks(this);
-            scheduleNewFrame();
         }
 
         @Override
-        public void run() {
-            if (mTouchState != TouchState.RESTING) {
-                // If the user is touching the list, then we just abort
-                return;
+        public boolean queueIdle() {
+            if (mAdapter != null && mWarmUpCounts != null) {
+                for (int viewType = 0; viewType < mWarmUpCounts.length; viewType++) {
+                    if (mWarmUpCounts[viewType] == 0) {
+                        continue;
+                    }
+                    if (mLayout.getRecycleBin().getScrapCount(viewType) >= mWarmUpCounts[viewType]) {
+                        mWarmUpCounts[viewType] = 0;
+                        continue;
+                    }
+                    int position = findPositionOfViewType(viewType);
+                    if (position == INVALID_POSITION) {
+                        mWarmUpCounts[viewType] = 0;
+                        continue;
+                    }
+                    mLayout.getRecycleBin().put(viewType, mAdapter.getView(position, null, ColumnListView.this));
+                    return true;
+                }
             }
+            mAdded = false;
+            return false;
+        }
+    }
 
-            int listTop = getListTop();
+    /**
+     * Returns the distance that the list is predicted to move before the current fling
+     * comes to rest, positive when the content moves down, or 0 if it is not flinging.
+     */
+    public int getPredictedFlingDistance() {
+        return mFlingRunnable.getPredictedListTop() - mLayout.getListTop();
+    }
 
-            if (!mSnapping) {
-                snapIfNeeded(listTop);
+    /**
+     * Returns the position that is predicted to be at the top of the list when the
+     * current fling comes to rest, so that the items there can be prepared before the
+     * list gets there. Returns {@link #INVALID_POSITION} if that part of the list has
+     * not been laid out yet.
+     */
+    public int getPredictedFlingPosition() {
+        int offset = computeVerticalScrollOffset() - getPredictedFlingDistance();
+        int predictedPosition = INVALID_POSITION;
+        for (int i = 0; i < mLayout.getLayoutModel().getNumberOfColumns(); i++) {
+            int position = mLayout.getLayoutModel().findInColumn(i, Math.max(0, offset));
+            if (position == ColumnLayoutModel.NO_POSITION) {
+                continue;
             }
-
-            float acceleration = getAcceleration();
-            float dt = getDeltaTAndSaveCurrentTime();
-            mVelocity += acceleration * dt;
-            int deltaPos = (int) (mVelocity * dt);
-
-            // If we are snapping and we're not at the snap point, then we (also) decrease the
-            // distance to the snap point by one pixel to make sure we reach the snap point
-            if (mSnapping && getListTop() + deltaPos != mSnapPoint) {
-                if (getListTop() + deltaPos < mSnapPoint) {
-                    deltaPos++;
-                } else {
-                    deltaPos--;
-                }
+            if (predictedPosition == INVALID_POSITION || position < predictedPosition) {
+                predictedPosition = position;
             }
+        }
+        return predictedPosition;
+    }
 
-            if (!mOverscroll) {
-                // Overscroll is disabled, check if the new position makes us want to snap
-                if (!mSnapping) {
-                    snapIfNeeded(listTop + deltaPos);
-                }
+    // The scroll bar is drawn with every frame, so the scroll range is estimated
+    // without binding or measuring any items
+    @Override
+    protected int computeVerticalScrollRange() {
+        return mAdapter != null ? mLayout.getScrollRange() : 0;
+    }
 
-                // if we should snap, reset acceleration and velocity and re-calculate the
-                // delta pos so that we position the list exactly at the snap position
-                if (mSnapping) {
-                    mVelocity = 0;
-                    acceleration = 0;
-                    deltaPos = mSnapPoint - listTop;
-                }
-            }
+    @Override
+    protected int computeVerticalScrollOffset() {
+        return mLayout.getScrollOffset();
+    }
+
+    // Receives the frame callbacks of the Choreographer, which is only available
+    // from Jelly Bean, and passes them on to the fling
+    private class FlingFrameCallback implements Choreographer.FrameCallback {
+        @Override
+        public void doFrame(final long frameTimeNanos) {
+            mFlingRunnable.doFrame(frameTimeNanos);
+        }
+    }
 
-            scrollListTo(listTop + deltaPos);
+    // Runs the fling in the frames of the Choreographer, or in posted runnables before
+    // Jelly Bean, and stops it when the list is touched
+    private class FlingRunnable implements Runnable {
 
-            if (Math.abs(acceleration) > ACCELERATION_THERSHOLD) {
+        // The time between frames in milliseconds when there is no Choreographer
+        public static final int FALLBACK_FRAME_DELAY = 16;
+
+        // The callback for Choreographer frames, only created on Jelly Bean and later
+        private Object mFrameCallback;
+
+        /**
+         * Starts a fling with the given velocity, or a snap back if the list has been
+         * pulled past its end. Does nothing if the velocity is too low for a fling and
+         * the list doesn't need to snap, so that the fling is only running, and the
+         * list only in the fling state, when the list actually moves.
+         */
+        public void start(final float velocity) {
+            stop();
+            if (mFling.start(velocity, System.nanoTime())) {
                 scheduleNewFrame();
             }
+        }
 
+        public void stop() {
+            mFling.stop();
+            removeCallbacks(this);
+            if (mFrameCallback != null) {
+                Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+            }
         }
 
-        private float getAcceleration() {
-            // the damping part of the acceleration (directed against the velocity)
-            float acceleration = (mSnapping ? mSnapDamping : mFlingDamping) * -mVelocity;
+        public boolean isRunning() {
+            return mFling.isRunning();
+        }
 
-            if (mSnapping) {
-                int distanceToSnapPoint = mSnapPoint - getListTop();
-                // the spring part of the acceleration (directed towards the snap point)
-                acceleration += mSnapSpring * distanceToSnapPoint;
-            }
-            return acceleration;
+        public float getVelocity() {
+            return mFling.getVelocity();
         }
 
-        private void snapIfNeeded(int listTop) {
-            if (isFirstItemShowing()) {
-                mSnapPoint = getTopSnapPos();
-                if (listTop > mSnapPoint && mVelocity >= 0) {
-                    // the top row is the first row and...
-                    // the top of the list is farther down than the snap pos and...
-                    // the velocity is directed downward
-                    mSnapping = true;
-                }
+        /**
+         * Returns where the top of the list is predicted to come to rest.
+         */
+        public int getPredictedListTop() {
+            return mFling.getPredictedListTop();
+        }
+
+        @Override
+        public void run() {
+            doFrame(System.nanoTime());
+        }
+
+        private void doFrame(final long frameTimeNanos) {
+            if (!mFling.isRunning() || mTouchState != TouchState.RESTING) {
+                // If the user is touching the list, then we just abort
+                mFling.stop();
+                return;
             }
 
-            if (isLastItemShowing()) {
-                mSnapPoint = getBottomSnapPos();
-                if (listTop < mSnapPoint && mVelocity <= 0) {
-                    // the bottom row is the last row and ...
-                    // the top of the list is higher up than the snap pos and...
-                    // the velocity is directed upwards
-                    mSnapping = true;
-                }
+            int listTop = mLayout.getListTop();
+            int newListTop = mFling.step(frameTimeNanos);
+            if (newListTop != listTop) {
+                scrollListTo(newListTop);
+            } else if (mFling.isRunning()) {
+                // add what didn't fit in the budget of the last frame
+                mLayout.fillListWithinBudget();
             }
-        }
 
-        private float getDeltaTAndSaveCurrentTime() {
-            long now = AnimationUtils.currentAnimationTimeMillis();
-            long deltaT = now - mLastTime;
-            if (deltaT > MAX_FRAME_DELAY) {
-                deltaT = MAX_FRAME_DELAY;
+            if (!mFling.isRunning()) {
+                if (mScrollState == OnScrollListener.SCROLL_STATE_FLING) {
+                    setScrollState(OnScrollListener.SCROLL_STATE_IDLE);
+                }
+            } else {
+                scheduleNewFrame();
             }
-            mLastTime = now;
-            return deltaT / 1000f;
         }
 
         private void scheduleNewFrame() {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                postOnAnimationDelayed(this, WANTED_FRAME_DELAY);
+                if (mFrameCallback == null) {
+                    mFrameCallback = new FlingFrameCallback();
+                }
+                Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
             } else {
-                postDelayed(this, WANTED_FRAME_DELAY);
+                postDelayed(this, FALLBACK_FRAME_DELAY);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,229 @@
+package com.jayway.columnlist;
+
+/**
+ * The motion of a {@link ColumnLayout} after it has been let go of: a fling that is
+ * slowed down by damping, and a spring that snaps the list back when it has been
+ * pulled or has flung past one of its ends. The motion is simulated in fixed time
+ * steps so that it is the same at any frame rate. It is plain Java, like the layout,
+ * so that recorded scrolls can be replayed on a JVM.
+ */
+class FlingIntegrator {
+
+    // The default damping while flinging
+    static final float DEFAULT_FLING_DAMPING = 1.5f;
+
+    // The default spring when snapping
+    static final int DEFAULT_SNAP_SPRING = 100;
+
+    // The minimum speed of a fling move to start a fling scroll
+    public static final int SPEED_THRESHOLD = 200;
+
+    // The maximum time between frames in milliseconds
+    public static final int MAX_FRAME_DELAY = 50;
+
+    // The fixed time step of the simulation in seconds
+    public static final float TIME_STEP = 1 / 240f;
+
+    // The fixed time step of the simulation in nanoseconds
+    public static final long TIME_STEP_NANOS = 1000000000L / 240;
+
+    // The minimum amount of acceleration to keep flinging
+    public static final int ACCELERATION_THRESHOLD = 20;
+
+    // The number of frames ahead of the fling that the list is filled
+    public static final int FILL_AHEAD_FRAMES = 2;
+
+    // The list that is moved
+    private final ColumnLayout<?> mLayout;
+
+    // The damping while flinging, higher number -> more damping
+    private float mFlingDamping;
+
+    // The spring when snapping, higher number -> faster snap
+    private float mSnapSpring;
+
+    // The damping when snapping, calculated based on the snap spring
+    private float mSnapDamping;
+
+    // The current velocity of the fling
+    private float mVelocity;
+
+    // The time of the last frame in nanoseconds
+    private long mLastFrameTime;
+
+    // The time that has passed but not been simulated yet, in nanoseconds
+    private long mUnsimulatedTime;
+
+    // The part of the position that is less than a pixel and not applied to the list yet
+    private float mPositionRemainder;
+
+    // The point to snap the top of the list to
+    private int mSnapPoint;
+
+    // True if we should snap the top of the list to the snap point
+    private boolean mSnapping;
+
+    // True while the fling is running
+    private boolean mRunning;
+
+    FlingIntegrator(final ColumnLayout<?> layout) {
+        mLayout = layout;
+        setFlingDamping(DEFAULT_FLING_DAMPING);
+        setSnapSpring(DEFAULT_SNAP_SPRING);
+    }
+
+    public void setFlingDamping(final float flingDamping) {
+        mFlingDamping = flingDamping;
+    }
+
+    public void setSnapSpring(final float snapSpring) {
+        mSnapSpring = snapSpring;
+        mSnapDamping = 2 * (float) Math.sqrt(snapSpring);
+    }
+
+    /**
+     * Starts a fling with the given velocity, or a snap back if the list has been
+     * pulled past its end. Does nothing if the velocity is too low for a fling and
+     * the list doesn't need to snap, so that the fling is only running when the list
+     * actually moves.
+     *
+     * @return true if the fling is running
+     */
+    public boolean start(final float velocity, final long timeNanos) {
+        stop();
+        if (Math.abs(velocity) > SPEED_THRESHOLD) {
+            mVelocity = velocity;
+        } else {
+            mVelocity = 0;
+        }
+        mSnapping = false;
+        snapIfNeeded(mLayout.getListTop());
+        if (mVelocity == 0 && !mSnapping) {
+            return false;
+        }
+        mPositionRemainder = 0;
+        mUnsimulatedTime = 0;
+        mLastFrameTime = timeNanos;
+        mRunning = true;
+        return true;
+    }
+
+    public void stop() {
+        mRunning = false;
+        mLayout.setFillAhead(0);
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public float getVelocity() {
+        return mRunning ? mVelocity : 0;
+    }
+
+    /**
+     * Returns where the top of the list is predicted to come to rest.
+     */
+    public int getPredictedListTop() {
+        int listTop = mLayout.getListTop();
+        if (!mRunning) {
+            return listTop;
+        }
+        if (mSnapping) {
+            return mSnapPoint;
+        }
+        // the sum of the remaining steps of the damped velocity
+        float distance = mVelocity * (1 - mFlingDamping * TIME_STEP) / mFlingDamping;
+        return (int) (listTop + mPositionRemainder + distance);
+    }
+
+    /**
+     * Simulates the fling up to the frame time, and sets how far ahead of the list
+     * it is filled. The fling stops running when it comes to rest.
+     *
+     * @return where the top of the list should be moved to
+     */
+    public int step(final long frameTimeNanos) {
+        long frameTime = Math.max(0, frameTimeNanos - mLastFrameTime);
+        mLastFrameTime = frameTimeNanos;
+        mUnsimulatedTime += Math.min(frameTime, MAX_FRAME_DELAY * 1000000L);
+
+        float position = mLayout.getListTop() + mPositionRemainder;
+        boolean overscroll = mLayout.isOverscrollEnabled();
+
+        // step the simulation in fixed time steps so that it behaves the same
+        // regardless of the frame rate
+        while (mUnsimulatedTime >= TIME_STEP_NANOS) {
+            mUnsimulatedTime -= TIME_STEP_NANOS;
+
+            if (!mSnapping) {
+                snapIfNeeded((int) position);
+            }
+            mVelocity += getAcceleration(position) * TIME_STEP;
+            position += mVelocity * TIME_STEP;
+
+            if (!overscroll) {
+                // Overscroll is disabled, check if the new position makes us want to snap
+                if (!mSnapping) {
+                    snapIfNeeded((int) position);
+                }
+
+                // if we should snap, stop and position the list exactly at the snap position
+                if (mSnapping) {
+                    mVelocity = 0;
+                    position = mSnapPoint;
+                    mUnsimulatedTime = 0;
+                }
+            }
+        }
+
+        boolean done = Math.abs(getAcceleration(position)) <= ACCELERATION_THRESHOLD;
+        if (done && mSnapping) {
+            position = mSnapPoint;
+        }
+
+        // fill ahead of the list as far as it is expected to move in the next frames
+        mLayout.setFillAhead(done ? 0 : mVelocity * FILL_AHEAD_FRAMES * Math.min(frameTime, MAX_FRAME_DELAY * 1000000L) / 1e9f);
+        if (done) {
+            mRunning = false;
+        }
+
+        int newListTop = (int) Math.floor(position);
+        mPositionRemainder = position - newListTop;
+        return newListTop;
+    }
+
+    private float getAcceleration(final float position) {
+        // the damping part of the acceleration (directed against the velocity)
+        float acceleration = (mSnapping ? mSnapDamping : mFlingDamping) * -mVelocity;
+
+        if (mSnapping) {
+            float distanceToSnapPoint = mSnapPoint - position;
+            // the spring part of the acceleration (directed towards the snap point)
+            acceleration += mSnapSpring * distanceToSnapPoint;
+        }
+        return acceleration;
+    }
+
+    private void snapIfNeeded(final int listTop) {
+        if (mLayout.isFirstItemShowing()) {
+            mSnapPoint = mLayout.getTopSnapPos();
+            if (listTop > mSnapPoint && mVelocity >= 0) {
+                // the top row is the first row and...
+                // the top of the list is farther down than the snap pos and...
+                // the velocity is directed downward
+                mSnapping = true;
+            }
+        }
+
+        if (mLayout.isLastItemShowing()) {
+            mSnapPoint = mLayout.getBottomSnapPos();
+            if (listTop < mSnapPoint && mVelocity <= 0) {
+                // the bottom row is the last row and ...
+                // the top of the list is higher up than the snap pos and...
+                // the velocity is directed upwards
+                mSnapping = true;
+            }
+        }
+    }
+}
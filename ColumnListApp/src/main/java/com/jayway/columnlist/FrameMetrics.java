@@ -0,0 +1,83 @@
+package com.jayway.columnlist;
+
+/**
+ * Where a {@link ColumnListView} spent its time in one frame, reported to its
+ * {@link ColumnListView.OnFrameMetricsListener} when the frame is drawn. The same
+ * object is reused for every frame, so it must not be kept after the callback;
+ * copy the values that are needed.
+ */
+public final class FrameMetrics {
+
+    // The time since the previous frame was drawn
+    long mFrameIntervalNanos;
+
+    // The time spent getting views from the adapter
+    long mBindNanos;
+
+    // The time spent measuring views
+    long mMeasureNanos;
+
+    // The time spent laying out views
+    long mLayoutNanos;
+
+    // The time spent removing items that were scrolled out of the list
+    long mRecycleNanos;
+
+    // The time spent moving the list
+    long mScrollNanos;
+
+    // The number of views the adapter created
+    int mInflationCount;
+
+    // The number of recycled views the adapter reused
+    int mRecycledBindCount;
+
+    FrameMetrics() {
+    }
+
+    /**
+     * Returns the time since the previous frame was drawn, or 0 for the first frame.
+     */
+    public long getFrameIntervalNanos() {
+        return mFrameIntervalNanos;
+    }
+
+    public long getBindNanos() {
+        return mBindNanos;
+    }
+
+    public long getMeasureNanos() {
+        return mMeasureNanos;
+    }
+
+    public long getLayoutNanos() {
+        return mLayoutNanos;
+    }
+
+    public long getRecycleNanos() {
+        return mRecycleNanos;
+    }
+
+    public long getScrollNanos() {
+        return mScrollNanos;
+    }
+
+    public int getInflationCount() {
+        return mInflationCount;
+    }
+
+    public int getRecycledBindCount() {
+        return mRecycledBindCount;
+    }
+
+    void reset() {
+        mFrameIntervalNanos = 0;
+        mBindNanos = 0;
+        mMeasureNanos = 0;
+        mLayoutNanos = 0;
+        mRecycleNanos = 0;
+        mScrollNanos = 0;
+        mInflationCount = 0;
+        mRecycledBindCount = 0;
+    }
+}
@@ -0,0 +1,22 @@
+package com.jayway.columnlist;
+
+import android.widget.ListAdapter;
+
+/**
+ * A {@link ListAdapter} that knows the heights of its items without creating their
+ * views. When the adapter of a {@link ColumnListView} implements this interface the
+ * list can place items in columns, jump to a position and calculate its total height
+ * without calling {@link #getView} for the items that are not shown.
+ */
+public interface HeightProvidingListAdapter extends ListAdapter {
+
+    // Returned when the height of an item can't be known without measuring its view
+    int UNKNOWN_HEIGHT = -1;
+
+    /**
+     * Returns the height, in pixels, that the view of the item at the given position
+     * gets when it is measured with the given column width, or {@link #UNKNOWN_HEIGHT}
+     * if the view has to be measured to know it.
+     */
+    int getItemHeight(int position, int columnWidth);
+}
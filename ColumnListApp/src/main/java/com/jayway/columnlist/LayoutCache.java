@@ -0,0 +1,177 @@
+package com.jayway.columnlist;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the layout model of a list in a file between runs, so that a list with a lot
+ * of items can be shown where it was left on a cold start without measuring every
+ * item above that place. The file is only used if it was written for the same data
+ * version, number of columns, column width and padding.
+ * <p/>
+ * The file is a header followed by one int per position with the height in the high
+ * bits and the column in the low byte; the tops follow from the heights. It is read
+ * through a memory mapping rather than copied into memory first, and it is written
+ * to a temporary file that replaces the old one, so a write that fails leaves the
+ * old file as it was.
+ * <p/>
+ * Loading builds a layout model from every position in the file, so it is done off
+ * the main thread. Every load makes a model and a result of its own, so a load that
+ * is no longer wanted can be left to finish without touching what the list uses,
+ * and the list checks the column width and padding that were read against its own
+ * before it uses the model.
+ */
+class LayoutCache {
+
+    /**
+     * A layout model that was loaded from the file, with the column width and
+     * padding it was made for and where the list was when it was written.
+     */
+    static class Loaded {
+
+        // The layout model with the positions in the file
+        final ColumnLayoutModel mLayoutModel;
+
+        // The column width that the layout was made for
+        int mColumnWidth;
+
+        // The padding that the layout was made for
+        int mPadding;
+
+        // The first position on screen when the file was written
+        int mFirstPosition;
+
+        // The distance from the top of the list to the first position when the file was written
+        int mFirstOffset;
+
+        Loaded(final ColumnLayoutModel layoutModel) {
+            mLayoutModel = layoutModel;
+        }
+    }
+
+    // The first bytes of a layout cache file, "CLLC"
+    private static final int MAGIC = 0x434c4c43;
+
+    // The version of the file format
+    private static final int VERSION = 1;
+
+    // The magic, version, data version, number of columns, column width, padding,
+    // first position, first offset and count
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4 + 4 + 4 + 4;
+
+    private final File mFile;
+
+    // The version of the adapter data that the layout belongs to
+    private final long mDataVersion;
+
+    LayoutCache(final File file, final long dataVersion) {
+        mFile = file;
+        mDataVersion = dataVersion;
+    }
+
+    /**
+     * Reads the file into a new layout model with the given number of columns and
+     * the padding that the positions were laid out with.
+     *
+     * @return the loaded layout, or null if there is no file, it is damaged or it
+     * was written for another version, data version or number of columns
+     */
+    public Loaded load(final int numberOfColumns) {
+        if (!mFile.isFile()) {
+            return null;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != mDataVersion
+                    || buffer.getInt() != numberOfColumns) {
+                return null;
+            }
+            int columnWidth = buffer.getInt();
+            int padding = buffer.getInt();
+            int firstPosition = buffer.getInt();
+            int firstOffset = buffer.getInt();
+            int count = buffer.getInt();
+            if (count < 0 || count > (size - HEADER_SIZE) / 4) {
+                return null;
+            }
+
+            ColumnLayoutModel layoutModel = new ColumnLayoutModel(numberOfColumns);
+            layoutModel.setPadding(padding);
+            for (int position = 0; position < count; position++) {
+                int value = buffer.getInt();
+                if ((value & 0xFF) >= numberOfColumns) {
+                    return null;
+                }
+                layoutModel.append(value & 0xFF, value >>> 8);
+            }
+            Loaded loaded = new Loaded(layoutModel);
+            loaded.mColumnWidth = columnWidth;
+            loaded.mPadding = padding;
+            loaded.mFirstPosition = firstPosition;
+            loaded.mFirstOffset = firstOffset;
+            return loaded;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(file);
+        }
+    }
+
+    /**
+     * Writes the first positions of the layout model and where the list is to the file.
+     */
+    public void save(final ColumnLayoutModel layoutModel, final int count, final int columnWidth,
+                     final int padding, final int firstPosition, final int firstOffset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * 4);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(mDataVersion);
+        buffer.putInt(layoutModel.getNumberOfColumns());
+        buffer.putInt(columnWidth);
+        buffer.putInt(padding);
+        buffer.putInt(firstPosition);
+        buffer.putInt(firstOffset);
+        buffer.putInt(count);
+        for (int position = 0; position < count; position++) {
+            buffer.putInt(layoutModel.getHeight(position) << 8 | layoutModel.getColumn(position));
+        }
+        buffer.flip();
+
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(mFile)) {
+            tempFile.delete();
+            throw new IOException("Could not replace " + mFile);
+        }
+    }
+
+    private static void close(final RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // nothing was written
+            }
+        }
+    }
+}
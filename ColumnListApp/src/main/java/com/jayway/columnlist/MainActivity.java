@@ -2,8 +2,11 @@ package com.jayway.columnlist;
 
 import android.content.Context;
 import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.StateListDrawable;
 import android.os.Bundle;
 import android.support.v7.app.ActionBarActivity;
+import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -11,7 +14,6 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AbsListView;
 import android.widget.AdapterView;
-import android.widget.BaseAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -21,6 +23,7 @@ public class MainActivity extends ActionBarActivity {
 
     private boolean mSelectMode;
     private MyAdapter mAdapter;
+    private ColumnListView mListView;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -28,24 +31,24 @@ public class MainActivity extends ActionBarActivity {
         setContentView(R.layout.activity_main);
 
         mAdapter = new MyAdapter(this, 50);
-        ColumnListView listView = (ColumnListView) findViewById(R.id.list);
-        listView.setAdapter(mAdapter);
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mListView = (ColumnListView) findViewById(R.id.list);
+        mListView.setAdapter(mAdapter);
+        mListView.warmUpRecycledViews();
+        mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(final AdapterView<?> parent, final View view, final int position, final long id) {
-                if (mSelectMode) {
-                    mAdapter.toggleSelected(position);
-                } else {
+                if (!mSelectMode) {
                     Toast.makeText(MainActivity.this, "Clicked item: " + position, Toast.LENGTH_SHORT).show();
                 }
             }
         });
-        listView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+        mListView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
             @Override
             public boolean onItemLongClick(final AdapterView<?> parent, final View view, final int position, final long id) {
                 mSelectMode = true;
                 invalidateOptionsMenu();
-                mAdapter.toggleSelected(position);
+                mListView.setChoiceMode(ColumnListView.CHOICE_MODE_MULTIPLE);
+                mListView.setItemChecked(position, !mListView.isItemChecked(position));
                 return true;
             }
         });
@@ -71,7 +74,7 @@ public class MainActivity extends ActionBarActivity {
 
             Toast.makeText(this, "Selected items: " + getSelectedPositionsText(), Toast.LENGTH_SHORT).show();
 
-            mAdapter.clearSelectedPositions();
+            mListView.setChoiceMode(ColumnListView.CHOICE_MODE_NONE);
             return true;
         }
         return false;
@@ -80,22 +83,22 @@ public class MainActivity extends ActionBarActivity {
     private String getSelectedPositionsText() {
         StringBuilder sb = new StringBuilder();
 
-        for (int i = 0; i < mAdapter.mSelectedPositions.size(); i++) {
-            if (mAdapter.mSelectedPositions.get(i)) {
+        SparseBooleanArray checkedPositions = mListView.getCheckedItemPositions();
+        for (int i = 0; i < checkedPositions.size(); i++) {
+            if (checkedPositions.valueAt(i)) {
                 sb.append(" ");
-                sb.append(i);
+                sb.append(checkedPositions.keyAt(i));
             }
         }
 
         return sb.toString();
     }
 
-    private class MyAdapter extends BaseAdapter {
+    private class MyAdapter extends ColumnListAdapter implements HeightProvidingListAdapter {
         Context mContext;
         int mCount;
         ArrayList<Integer> mHeights = new ArrayList<Integer>();
         ArrayList<Integer> mColors = new ArrayList<Integer>();
-        ArrayList<Boolean> mSelectedPositions = new ArrayList<Boolean>();
 
         public MyAdapter(final Context context, int count) {
             mContext = context;
@@ -103,7 +106,6 @@ public class MainActivity extends ActionBarActivity {
             for (int i = 0; i < mCount; i++) {
                 mHeights.add((int) (Math.random() * 800 + 200));
                 mColors.add(Color.rgb((int) (Math.random() * 0x80), (int) (Math.random() * 0x80), (int) (Math.random() * 0x80)));
-                mSelectedPositions.add(false);
             }
         }
 
@@ -122,11 +124,24 @@ public class MainActivity extends ActionBarActivity {
             return position;
         }
 
+        @Override
+        public int getItemHeight(final int position, final int columnWidth) {
+            return mHeights.get(position);
+        }
+
         @Override
         public View getView(final int position, final View convertView, final ViewGroup parent) {
             TextView view = (TextView) convertView;
             if (view == null) {
                 view = (TextView) LayoutInflater.from(mContext).inflate(R.layout.list_item, null, false);
+
+                // checked items are activated by the list
+                StateListDrawable background = new StateListDrawable();
+                background.addState(new int[] {android.R.attr.state_activated}, new ColorDrawable(0xFF000000));
+                ColorDrawable color = new ColorDrawable(0);
+                background.addState(new int[0], color);
+                view.setBackgroundDrawable(background);
+                view.setTag(color);
             }
             view.setText("View " + position);
             AbsListView.LayoutParams params = (AbsListView.LayoutParams) view.getLayoutParams();
@@ -138,21 +153,9 @@ public class MainActivity extends ActionBarActivity {
             }
             view.setLayoutParams(params);
 
-            view.setBackgroundColor(mSelectedPositions.get(position) ? 0xFF000000 : mColors.get(position));
+            ((ColorDrawable) view.getTag()).setColor(mColors.get(position));
 
             return view;
         }
-
-        private void toggleSelected(final int position) {
-            mSelectedPositions.set(position, !mSelectedPositions.get(position));
-            notifyDataSetChanged();
-        }
-
-        public void clearSelectedPositions() {
-            for (int i = 0; i < mSelectedPositions.size(); i++) {
-                mSelectedPositions.set(i, false);
-            }
-            notifyDataSetChanged();
-        }
     }
 }
@@ -0,0 +1,152 @@
+package com.jayway.columnlist;
+
+/**
+ * Remembers the measured heights of items so that an item that has been measured
+ * once doesn't have to be bound and measured again just to know how high it is.
+ * Items are keyed by their id if the adapter has stable ids and by their position
+ * if not, together with their view type. All heights are for one column width, so
+ * the cache has to be cleared when the width changes.
+ * <p/>
+ * The heights are kept in an open addressing hash table of primitive arrays.
+ */
+class MeasureCache {
+
+    // Returned when the height of an item is not known
+    static final int NO_HEIGHT = -1;
+
+    // The initial number of slots, always a power of two
+    private static final int INITIAL_CAPACITY = 64;
+
+    // The key of each slot
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+
+    // The view type of each slot
+    private int[] mViewTypes = new int[INITIAL_CAPACITY];
+
+    // The height of each slot, NO_HEIGHT if the slot is empty
+    private int[] mHeights = newHeights(INITIAL_CAPACITY);
+
+    // The number of slots in use
+    private int mSize;
+
+    /**
+     * Returns the height of the item with the given key, or {@link #NO_HEIGHT} if it
+     * is not known or was measured as another view type.
+     */
+    public int get(final long key, final int viewType) {
+        int slot = findSlot(mKeys, mHeights, key);
+        if (mHeights[slot] == NO_HEIGHT || mViewTypes[slot] != viewType) {
+            return NO_HEIGHT;
+        }
+        return mHeights[slot];
+    }
+
+    public void put(final long key, final int viewType, final int height) {
+        int slot = findSlot(mKeys, mHeights, key);
+        if (mHeights[slot] == NO_HEIGHT) {
+            if ((mSize + 1) * 2 > mHeights.length) {
+                grow();
+                slot = findSlot(mKeys, mHeights, key);
+            }
+            mSize++;
+        }
+        mKeys[slot] = key;
+        mViewTypes[slot] = viewType;
+        mHeights[slot] = height;
+    }
+
+    public void remove(final long key) {
+        int slot = findSlot(mKeys, mHeights, key);
+        if (mHeights[slot] == NO_HEIGHT) {
+            return;
+        }
+        mHeights[slot] = NO_HEIGHT;
+        mSize--;
+
+        // move the entries after the removed one that can't be found anymore
+        int mask = mHeights.length - 1;
+        for (int next = (slot + 1) & mask; mHeights[next] != NO_HEIGHT; next = (next + 1) & mask) {
+            int home = hash(mKeys[next]) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                mKeys[slot] = mKeys[next];
+                mViewTypes[slot] = mViewTypes[next];
+                mHeights[slot] = mHeights[next];
+                mHeights[next] = NO_HEIGHT;
+                slot = next;
+            }
+        }
+    }
+
+    /**
+     * Removes the heights of all keys from the given key and up, which are the items
+     * at and after a position when they are keyed by position.
+     */
+    public void removeFrom(final long minKey) {
+        if (mSize > 0) {
+            rehash(mHeights.length, true, minKey);
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        if (mSize == 0) {
+            return;
+        }
+        for (int i = 0; i < mHeights.length; i++) {
+            mHeights[i] = NO_HEIGHT;
+        }
+        mSize = 0;
+    }
+
+    private void grow() {
+        rehash(mHeights.length * 2, false, 0);
+    }
+
+    // Moves the entries to new arrays of the given capacity, leaving out the ones with
+    // a key from the given key and up if asked to
+    private void rehash(final int capacity, final boolean removeFrom, final long minKey) {
+        long[] oldKeys = mKeys;
+        int[] oldViewTypes = mViewTypes;
+        int[] oldHeights = mHeights;
+
+        mKeys = new long[capacity];
+        mViewTypes = new int[capacity];
+        mHeights = newHeights(capacity);
+        mSize = 0;
+        for (int i = 0; i < oldHeights.length; i++) {
+            if (oldHeights[i] != NO_HEIGHT && !(removeFrom && oldKeys[i] >= minKey)) {
+                mSize++;
+                int slot = findSlot(mKeys, mHeights, oldKeys[i]);
+                mKeys[slot] = oldKeys[i];
+                mViewTypes[slot] = oldViewTypes[i];
+                mHeights[slot] = oldHeights[i];
+            }
+        }
+    }
+
+    // Returns the slot of the key, or the empty slot where it should be put
+    private static int findSlot(final long[] keys, final int[] heights, final long key) {
+        int mask = heights.length - 1;
+        int slot = hash(key) & mask;
+        while (heights[slot] != NO_HEIGHT && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(final long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int[] newHeights(final int capacity) {
+        int[] heights = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            heights[i] = NO_HEIGHT;
+        }
+        return heights;
+    }
+}
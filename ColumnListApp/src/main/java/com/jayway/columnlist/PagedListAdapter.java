@@ -0,0 +1,261 @@
+package com.jayway.columnlist;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * An adapter for long or endless feeds that loads its items a page at a time on a
+ * background executor. The next page is loaded when the list gets close to the end
+ * of what has been loaded, and pages that are far from what is shown are dropped
+ * so that only a fixed number of pages is kept in memory. Positions whose page is
+ * not loaded are shown as placeholders until it is.
+ * <p/>
+ * The adapter is told what is shown by being added as a scroll listener of the
+ * list with {@link ColumnListView#addOnScrollListener}, which leaves the scroll
+ * listener of the list free for other uses.
+ * <p/>
+ * A page that fails to load is tried again after a delay that doubles with every
+ * failure in a row, up to a minute.
+ *
+ * @param <T> the type of the items
+ */
+public abstract class PagedListAdapter<T> extends ColumnListAdapter implements ColumnListView.OnScrollListener {
+
+    public static final int DEFAULT_PAGE_SIZE = 20;
+
+    public static final int DEFAULT_MAX_PAGES = 8;
+
+    // The delay before a page that failed to load is loaded again, in milliseconds
+    private static final long INITIAL_RETRY_DELAY = 1000;
+
+    // The longest delay before a page that failed to load is loaded again
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    // Runs the page loads
+    private final Executor mExecutor;
+
+    // Delivers loaded pages on the main thread
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // The number of items per page
+    private final int mPageSize;
+
+    // The maximum number of pages kept in memory
+    private final int mMaxPages;
+
+    // The loaded pages, by page index
+    private final SparseArray<List<T>> mPages = new SparseArray<List<T>>();
+
+    // The pages that are being loaded
+    private final SparseBooleanArray mLoadingPages = new SparseBooleanArray();
+
+    // The number of positions, loaded or not
+    private int mCount;
+
+    // True when a page shorter than the page size has been loaded
+    private boolean mEndReached;
+
+    // Increased when the adapter is refreshed, so that loads started before are ignored
+    private int mGeneration;
+
+    // The delay before the next retry of a page that failed to load
+    private long mRetryDelay = INITIAL_RETRY_DELAY;
+
+    public PagedListAdapter(final Executor executor) {
+        this(executor, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    public PagedListAdapter(final Executor executor, final int pageSize, final int maxPages) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Can't have a page size < 1");
+        }
+        if (maxPages < 2) {
+            throw new IllegalArgumentException("Can't keep less than 2 pages");
+        }
+        mExecutor = executor;
+        mPageSize = pageSize;
+        mMaxPages = maxPages;
+    }
+
+    /**
+     * Loads the items of a page. This is called on the executor, not on the main
+     * thread. A page with fewer items than the page size marks the end of the feed.
+     *
+     * @return the items, or null if they could not be loaded, in which case the page
+     * is loaded again after a delay
+     */
+    protected abstract List<T> loadPage(int page, int pageSize);
+
+    /**
+     * Returns the view of an item, like {@link #getView(int, View, ViewGroup)}. The
+     * item is null if its page is not loaded yet and a placeholder should be shown.
+     */
+    public abstract View getView(int position, T item, View convertView, ViewGroup parent);
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public T getItem(final int position) {
+        List<T> items = mPages.get(position / mPageSize);
+        int index = position % mPageSize;
+        return items != null && index < items.size() ? items.get(index) : null;
+    }
+
+    @Override
+    public long getItemId(final int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(final int position, final View convertView, final ViewGroup parent) {
+        return getView(position, getItem(position), convertView, parent);
+    }
+
+    public boolean isLoaded(final int position) {
+        return mPages.get(position / mPageSize) != null;
+    }
+
+    public boolean isEndReached() {
+        return mEndReached;
+    }
+
+    /**
+     * Drops all pages and loads the feed again from the start.
+     */
+    public void refresh() {
+        mGeneration++;
+        mPages.clear();
+        mLoadingPages.clear();
+        mCount = 0;
+        mEndReached = false;
+        mRetryDelay = INITIAL_RETRY_DELAY;
+        notifyDataSetChanged();
+        requestPage(0);
+    }
+
+    @Override
+    public void onScrollStateChanged(final ColumnListView view, final int scrollState) {
+    }
+
+    @Override
+    public void onScroll(final ColumnListView view, final int firstVisiblePosition, final int lastVisiblePosition) {
+        if (mCount == 0) {
+            if (!mEndReached) {
+                requestPage(0);
+            }
+            return;
+        }
+        if (lastVisiblePosition < 0 || firstVisiblePosition > lastVisiblePosition) {
+            return;
+        }
+
+        // load what is shown as placeholders
+        int firstPage = firstVisiblePosition / mPageSize;
+        int lastPage = lastVisiblePosition / mPageSize;
+        for (int page = firstPage; page <= lastPage; page++) {
+            requestPage(page);
+        }
+
+        // load the next page before the end is shown
+        if (!mEndReached && lastVisiblePosition >= mCount - mPageSize / 2) {
+            requestPage(mCount / mPageSize);
+        }
+
+        evictPages(firstPage, lastPage);
+    }
+
+    // Drops the pages that are farthest from the shown pages, keeping at most the
+    // maximum number of pages
+    private void evictPages(final int firstPage, final int lastPage) {
+        int margin = Math.max(0, (mMaxPages - (lastPage - firstPage + 1)) / 2);
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            int page = mPages.keyAt(i);
+            if (page < firstPage - margin || page > lastPage + margin) {
+                mPages.removeAt(i);
+            }
+        }
+    }
+
+    private void requestPage(final int page) {
+        if (mPages.get(page) != null || mLoadingPages.get(page)) {
+            return;
+        }
+        mLoadingPages.put(page, true);
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<T> items;
+                try {
+                    items = loadPage(page, mPageSize);
+                } catch (RuntimeException e) {
+                    items = null;
+                }
+                final List<T> loadedItems = items;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(generation, page, loadedItems);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(final int generation, final int page, final List<T> items) {
+        if (generation != mGeneration) {
+            return;
+        }
+        if (items == null) {
+            retryPage(generation, page);
+            return;
+        }
+        mLoadingPages.delete(page);
+        mRetryDelay = INITIAL_RETRY_DELAY;
+        mPages.put(page, items);
+        if (items.size() < mPageSize) {
+            mEndReached = true;
+        }
+
+        int start = page * mPageSize;
+        int end = start + items.size();
+        if (end > mCount) {
+            int oldCount = mCount;
+            mCount = end;
+            if (oldCount > start) {
+                notifyItemRangeChanged(start, oldCount - start);
+            }
+            notifyItemRangeInserted(Math.max(start, oldCount), end - Math.max(start, oldCount));
+        } else if (items.size() > 0) {
+            // the placeholders of the page can be replaced
+            notifyItemRangeChanged(start, items.size());
+        }
+    }
+
+    // Loads the page again after the retry delay, and doubles the delay for the next
+    // failure. The page stays marked as loading until then so it is not requested
+    // again while scrolling.
+    private void retryPage(final int generation, final int page) {
+        long delay = mRetryDelay;
+        mRetryDelay = Math.min(mRetryDelay * 2, MAX_RETRY_DELAY);
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration) {
+                    mLoadingPages.delete(page);
+                    requestPage(page);
+                }
+            }
+        }, delay);
+    }
+}
@@ -0,0 +1,34 @@
+package com.jayway.columnlist;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ListAdapter;
+
+/**
+ * A {@link ListAdapter} that can prepare the data of its items off the main thread,
+ * such as formatting strings, laying out text or decoding images. When the adapter
+ * of a {@link ColumnListView} implements this interface and the list has been given
+ * an executor with {@link ColumnListView#setPreparationExecutor}, the list prepares
+ * the items it is about to show on that executor, and the main thread only binds the
+ * prepared data to a view and attaches, measures and lays it out.
+ * <p/>
+ * Preparations of items that scroll out of reach before they are shown are
+ * cancelled, and items that are shown before their preparation is done are bound
+ * with {@link #getView(int, View, ViewGroup)} as usual.
+ *
+ * @param <P> the type of the prepared data
+ */
+public interface PreparableListAdapter<P> extends ListAdapter {
+
+    /**
+     * Prepares the data of the item at the given position. This is called on the
+     * executor, not on the main thread, and may be interrupted if it is cancelled.
+     */
+    P prepareItem(int position);
+
+    /**
+     * Returns the view of the item at the given position, like
+     * {@link #getView(int, View, ViewGroup)}, using the data prepared for it.
+     */
+    View getView(int position, P prepared, View convertView, ViewGroup parent);
+}
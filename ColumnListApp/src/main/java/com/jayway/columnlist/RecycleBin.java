@@ -0,0 +1,199 @@
+package com.jayway.columnlist;
+
+/**
+ * Keeps views that have been scrolled out of the list so that they can be reused
+ * for new items. There is one pool per view type, indexed by the view type, and
+ * views are taken and put back in LIFO order. Every pool has a maximum size and
+ * views that don't fit are dropped.
+ * <p/>
+ * While the list is laid out again the pools can be uncapped, so that the views
+ * taken off screen are all kept for the items that replace them.
+ * <p/>
+ * The bin also counts the number of hits, misses and evictions so that the pool
+ * sizes can be tuned for the adapter.
+ *
+ * @param <V> the type of the recycled views
+ */
+class RecycleBin<V> {
+
+    // The default maximum number of views kept per view type
+    static final int DEFAULT_MAX_SCRAP = 10;
+
+    // The recycled views, per view type
+    private Object[][] mScrap = new Object[0][];
+
+    // The number of recycled views, per view type
+    private int[] mScrapSizes = new int[0];
+
+    // The maximum number of views per view type, 0 means that the default is used
+    // and -1 that no views are kept
+    private int[] mMaxScrap = new int[0];
+
+    // True if the pools are held to their maximum sizes
+    private boolean mCapped = true;
+
+    // The number of times a view was found in the bin
+    private int mHits;
+
+    // The number of times there was no view in the bin
+    private int mMisses;
+
+    // The number of views that were dropped because the bin was full
+    private int mEvictions;
+
+    /**
+     * Sets up one pool per view type, dropping all views kept so far.
+     */
+    public void setViewTypeCount(final int viewTypeCount) {
+        if (viewTypeCount < 1) {
+            throw new IllegalArgumentException("Can't have a view type count < 1");
+        }
+        ensureMaxScrapCapacity(viewTypeCount);
+        mScrap = new Object[viewTypeCount][];
+        for (int i = 0; i < viewTypeCount; i++) {
+            mScrap[i] = new Object[getMaxScrap(i)];
+        }
+        mScrapSizes = new int[viewTypeCount];
+    }
+
+    public void setMaxScrap(final int viewType, final int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Can't have a negative maximum: " + max);
+        }
+        ensureMaxScrapCapacity(viewType + 1);
+        mMaxScrap[viewType] = max == 0 ? -1 : max;
+
+        if (viewType < mScrap.length) {
+            // resize the pool, dropping the views that don't fit anymore
+            Object[] scrap = new Object[max];
+            int size = Math.min(mScrapSizes[viewType], max);
+            System.arraycopy(mScrap[viewType], 0, scrap, 0, size);
+            mEvictions += mScrapSizes[viewType] - size;
+            mScrap[viewType] = scrap;
+            mScrapSizes[viewType] = size;
+        }
+    }
+
+    public int getMaxScrap(final int viewType) {
+        int max = viewType < mMaxScrap.length ? mMaxScrap[viewType] : 0;
+        if (max == 0) {
+            return DEFAULT_MAX_SCRAP;
+        }
+        return max < 0 ? 0 : max;
+    }
+
+    /**
+     * Returns a view of the given type from the bin, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final int viewType) {
+        if (viewType < 0 || viewType >= mScrap.length) {
+            return null;
+        }
+        int size = mScrapSizes[viewType];
+        if (size == 0) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        size--;
+        Object[] scrap = mScrap[viewType];
+        Object view = scrap[size];
+        scrap[size] = null;
+        mScrapSizes[viewType] = size;
+        return (V) view;
+    }
+
+    /**
+     * Puts a view in the bin. Views of types that are not recycled, and views that
+     * don't fit in the pool of their type while it is capped, are dropped.
+     */
+    public void put(final int viewType, final V view) {
+        if (viewType < 0 || viewType >= mScrap.length) {
+            return;
+        }
+        Object[] scrap = mScrap[viewType];
+        int size = mScrapSizes[viewType];
+        int max = getMaxScrap(viewType);
+        if (max == 0 || size >= max && mCapped) {
+            mEvictions++;
+            return;
+        }
+        if (size == scrap.length) {
+            scrap = new Object[Math.max(4, size * 2)];
+            System.arraycopy(mScrap[viewType], 0, scrap, 0, size);
+            mScrap[viewType] = scrap;
+        }
+        scrap[size] = view;
+        mScrapSizes[viewType] = size + 1;
+    }
+
+    /**
+     * Sets if the pools are held to their maximum sizes. Uncapped pools keep every
+     * view that is put in them, which is meant for while all views of the list are
+     * taken off screen to lay it out again and most are reused right away. Capping
+     * the pools again drops the views that don't fit.
+     */
+    public void setCapped(final boolean capped) {
+        mCapped = capped;
+        if (!capped) {
+            return;
+        }
+        for (int viewType = 0; viewType < mScrap.length; viewType++) {
+            int max = getMaxScrap(viewType);
+            Object[] scrap = mScrap[viewType];
+            for (int i = max; i < mScrapSizes[viewType]; i++) {
+                scrap[i] = null;
+                mEvictions++;
+            }
+            mScrapSizes[viewType] = Math.min(mScrapSizes[viewType], max);
+        }
+    }
+
+    public boolean isCapped() {
+        return mCapped;
+    }
+
+    public int getScrapCount(final int viewType) {
+        return viewType >= 0 && viewType < mScrapSizes.length ? mScrapSizes[viewType] : 0;
+    }
+
+    /**
+     * Drops all views in the bin.
+     */
+    public void clear() {
+        for (int i = 0; i < mScrap.length; i++) {
+            Object[] scrap = mScrap[i];
+            for (int j = 0; j < mScrapSizes[i]; j++) {
+                scrap[j] = null;
+            }
+            mScrapSizes[i] = 0;
+        }
+    }
+
+    public int getHits() {
+        return mHits;
+    }
+
+    public int getMisses() {
+        return mMisses;
+    }
+
+    public int getEvictions() {
+        return mEvictions;
+    }
+
+    public void resetStats() {
+        mHits = 0;
+        mMisses = 0;
+        mEvictions = 0;
+    }
+
+    private void ensureMaxScrapCapacity(final int capacity) {
+        if (capacity > mMaxScrap.length) {
+            int[] maxScrap = new int[capacity];
+            System.arraycopy(mMaxScrap, 0, maxScrap, 0, mMaxScrap.length);
+            mMaxScrap = maxScrap;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.jayway.columnlist;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A recording of the touch events that a {@link ColumnListView} has handled, set
+ * with {@link ColumnListView#setScrollTrace}, that can be written to a file and
+ * replayed to reproduce a scroll. Only the action, time and position of the first
+ * pointer are kept, along with the touch slop of the list so that a replay starts
+ * scrolling at the same move as the list did.
+ * <p/>
+ * In the file the touch slop follows the version, and every event is an action byte
+ * followed by the time and position as differences from the previous event, in
+ * variable length, zigzag encoded ints. Times are in milliseconds from the first
+ * event.
+ */
+public final class ScrollTrace {
+
+    // The actions are the masked actions of MotionEvent
+    public static final int ACTION_DOWN = 0;
+
+    public static final int ACTION_UP = 1;
+
+    public static final int ACTION_MOVE = 2;
+
+    public static final int ACTION_CANCEL = 3;
+
+    // The first bytes of a trace file, "CLST"
+    private static final int MAGIC = 0x434c5354;
+
+    private static final int VERSION = 1;
+
+    // The touch slop of a trace that has not been set by a list
+    private static final int DEFAULT_TOUCH_SLOP = 16;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // The action of each event
+    private byte[] mActions = new byte[INITIAL_CAPACITY];
+
+    // The time of each event in milliseconds from the first event
+    private int[] mTimes = new int[INITIAL_CAPACITY];
+
+    private int[] mXs = new int[INITIAL_CAPACITY];
+
+    private int[] mYs = new int[INITIAL_CAPACITY];
+
+    // The number of events
+    private int mSize;
+
+    // The uptime of the first event, used while recording
+    private long mStartTime;
+
+    // The distance in pixels a touch has to move to start scrolling the list
+    private int mTouchSlop = DEFAULT_TOUCH_SLOP;
+
+    /**
+     * Adds an event to the end of the trace.
+     *
+     * @param eventTime the uptime of the event in milliseconds, as from
+     * MotionEvent.getEventTime()
+     */
+    public void add(final int action, final long eventTime, final int x, final int y) {
+        if (mSize == 0) {
+            mStartTime = eventTime;
+        }
+        if (mSize == mActions.length) {
+            grow();
+        }
+        mActions[mSize] = (byte) action;
+        mTimes[mSize] = (int) (eventTime - mStartTime);
+        mXs[mSize] = x;
+        mYs[mSize] = y;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getAction(final int index) {
+        return mActions[index];
+    }
+
+    /**
+     * Returns the time of the event in milliseconds from the first event.
+     */
+    public int getTime(final int index) {
+        return mTimes[index];
+    }
+
+    public int getX(final int index) {
+        return mXs[index];
+    }
+
+    public int getY(final int index) {
+        return mYs[index];
+    }
+
+    public void setTouchSlop(final int touchSlop) {
+        mTouchSlop = touchSlop;
+    }
+
+    public int getTouchSlop() {
+        return mTouchSlop;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        writeVarInt(out, mTouchSlop);
+        writeVarInt(out, mSize);
+        int time = 0;
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < mSize; i++) {
+            out.writeByte(mActions[i]);
+            writeVarInt(out, zigzag(mTimes[i] - time));
+            writeVarInt(out, zigzag(mXs[i] - x));
+            writeVarInt(out, zigzag(mYs[i] - y));
+            time = mTimes[i];
+            x = mXs[i];
+            y = mYs[i];
+        }
+        out.flush();
+    }
+
+    public static ScrollTrace readFrom(final InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a scroll trace");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported scroll trace version " + version);
+        }
+        ScrollTrace trace = new ScrollTrace();
+        trace.setTouchSlop(readVarInt(in));
+        int size = readVarInt(in);
+        int time = 0;
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < size; i++) {
+            int action = in.readByte();
+            time += unzigzag(readVarInt(in));
+            x += unzigzag(readVarInt(in));
+            y += unzigzag(readVarInt(in));
+            trace.add(action, time, x, y);
+        }
+        return trace;
+    }
+
+    private void grow() {
+        int capacity = mActions.length * 2;
+        byte[] actions = new byte[capacity];
+        int[] times = new int[capacity];
+        int[] xs = new int[capacity];
+        int[] ys = new int[capacity];
+        System.arraycopy(mActions, 0, actions, 0, mSize);
+        System.arraycopy(mTimes, 0, times, 0, mSize);
+        System.arraycopy(mXs, 0, xs, 0, mSize);
+        System.arraycopy(mYs, 0, ys, 0, mSize);
+        mActions = actions;
+        mTimes = times;
+        mXs = xs;
+        mYs = ys;
+    }
+
+    private static int zigzag(final int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(final int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(final DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(final DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed scroll trace");
+    }
+}
@@ -0,0 +1,167 @@
+package com.jayway.columnlist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the layout and recycling algorithm of {@link ColumnListView}, the
+ * {@link ColumnLayout} that the list uses, run on {@link SimulatedItems} of random
+ * heights. Run them with {@code gradle :ColumnListBenchmark:benchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ColumnListBenchmark {
+
+    private static final int LIST_WIDTH = 1080;
+
+    private static final int LIST_HEIGHT = 1920;
+
+    private static final int PADDING = 16;
+
+    private static final int MIN_ITEM_HEIGHT = 200;
+
+    private static final int MAX_ITEM_HEIGHT = 1000;
+
+    // The distance scrolled per frame
+    private static final int SCROLL_STEP = 40;
+
+    // The number of items changed at a time
+    private static final int CHANGE_COUNT = 4;
+
+    // The time per frame that may be spent adding items outside of the list, like the list's default
+    private static final long FRAME_BUDGET_NANOS = 4000000;
+
+    // The parameters are named without a prefix since the names show up in the results
+    @Param({"2", "3", "5"})
+    public int columns;
+
+    @Param({"1000", "100000"})
+    public int itemCount;
+
+    private SimulatedItems mItems;
+
+    private ColumnLayout<SimulatedItems.ItemView> mLayout;
+
+    private int[] mItemHeights;
+
+    private int[] mChangedHeights;
+
+    // The distance scrolled since the list was laid out from the top
+    private int mScrolled;
+
+    // The distance that can be scrolled before the end of the items is close
+    private int mScrollLimit;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mItemHeights = new int[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            mItemHeights[i] = MIN_ITEM_HEIGHT + random.nextInt(MAX_ITEM_HEIGHT - MIN_ITEM_HEIGHT);
+        }
+        mChangedHeights = new int[CHANGE_COUNT];
+        for (int i = 0; i < CHANGE_COUNT; i++) {
+            mChangedHeights[i] = MIN_ITEM_HEIGHT + random.nextInt(MAX_ITEM_HEIGHT - MIN_ITEM_HEIGHT);
+        }
+
+        // stop well before the shortest column can run out of items
+        mScrollLimit = (itemCount / columns / 2) * MIN_ITEM_HEIGHT;
+
+        mItems = new SimulatedItems(mItemHeights.clone());
+        mLayout = mItems.createLayout(columns, LIST_WIDTH, LIST_HEIGHT, PADDING);
+        mLayout.setFrameBudgetNanos(FRAME_BUDGET_NANOS);
+        mLayout.layoutFromPosition(0, 0);
+
+        // start a few screens down so that there are items to scroll back to
+        mScrolled = 0;
+        while (mScrolled < LIST_HEIGHT * 3) {
+            scrollBy(SCROLL_STEP);
+        }
+    }
+
+    // Scrolls the list the given distance, a positive distance shows later items
+    private void scrollBy(final int distance) {
+        mLayout.scrollListTo(mLayout.getListTop() - distance);
+        mScrolled += distance;
+    }
+
+    /**
+     * Lays out the first screen of an empty list, like when an adapter is set.
+     */
+    @Benchmark
+    public int fill() {
+        mLayout.clear();
+        mLayout.layoutFromPosition(0, 0);
+        return mLayout.getChildCount();
+    }
+
+    /**
+     * Scrolls one frame down, adding and recycling the items that come in and out of
+     * view, and starts over from the top when the end is close.
+     */
+    @Benchmark
+    public int scrollDown() {
+        if (mScrolled >= mScrollLimit) {
+            mLayout.layoutFromPosition(0, 0);
+            mScrolled = 0;
+        }
+        scrollBy(SCROLL_STEP);
+        return mLayout.getFirstVisiblePosition();
+    }
+
+    /**
+     * Scrolls one frame back and forth, which only touches items that have been laid
+     * out before and so measures the cost of the layout model lookups.
+     */
+    @Benchmark
+    public int scrollBackAndForth() {
+        scrollBy(-SCROLL_STEP * 10);
+        scrollBy(SCROLL_STEP * 10);
+        return mLayout.getFirstVisiblePosition();
+    }
+
+    /**
+     * Changes the heights of a few items that are shown, like notifyItemRangeChanged
+     * followed by the layout pass of the list.
+     */
+    @Benchmark
+    public int changeItems() {
+        int start = mLayout.getFirstVisiblePosition();
+        int[] itemHeights = mItems.getItemHeights();
+        for (int i = 0; i < CHANGE_COUNT; i++) {
+            itemHeights[start + i] = mChangedHeights[i];
+            mLayout.getMeasureCache().remove(mLayout.getMeasureKey(start + i));
+        }
+        mLayout.rebindItems(start, start + CHANGE_COUNT);
+        mLayout.fillList();
+        return mLayout.getChildCount();
+    }
+
+    /**
+     * Rebinds everything that is shown, like notifyDataSetChanged without stable ids
+     * followed by the layout pass of the list.
+     */
+    @Benchmark
+    public int reloadItems() {
+        mLayout.getMeasureCache().clear();
+        mLayout.reloadViews();
+        mLayout.fillList();
+        return mLayout.getChildCount();
+    }
+}
@@ -0,0 +1,286 @@
+package com.jayway.columnlist;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Replays a {@link ScrollTrace} recorded on a device against the
+ * {@link ColumnLayout} of the list with {@link SimulatedItems}, with a clock that
+ * advances one frame at a time, so that a janky scroll can be reproduced and looked
+ * at frame by frame. Touches drag the layout like {@link ColumnListView} does, with
+ * the touch slop that was recorded in the trace, and flings are run by the same
+ * {@link FlingIntegrator} as the list.
+ * <p/>
+ * For every frame the replay reports how many items were bound, measured and
+ * inflated, the bytes that were allocated, the time the layout and recycling took
+ * on this machine, and a frame time simulated from the costs of binding, measuring
+ * and inflating on a device. Items are added without a frame budget, so everything
+ * but the measured time is the same on every run.
+ * <p/>
+ * Run it with {@code gradle :ColumnListBenchmark:replayTrace -Ptrace=<file>}, or
+ * without a trace to replay a made up one.
+ */
+class ScrollTraceReplay {
+
+    // What happened in one frame
+    static class Frame {
+
+        // The time of the frame in milliseconds from the start of the trace
+        int mTime;
+
+        // How far the list has been scrolled
+        int mScrollOffset;
+
+        int mBindCount;
+
+        int mMeasureCount;
+
+        int mInflationCount;
+
+        // The bytes allocated by the layout and recycling
+        long mAllocatedBytes;
+
+        // The time the layout and recycling took on this machine
+        long mWorkNanos;
+
+        // The time the frame is expected to take on a device
+        long mSimulatedNanos;
+    }
+
+    // The time between frames
+    private static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    // The costs of the work that isn't simulated, roughly as on a mid range device
+    private static final long BIND_COST_NANOS = 300000;
+
+    private static final long MEASURE_COST_NANOS = 250000;
+
+    private static final long INFLATION_COST_NANOS = 1500000;
+
+    // A frame budget that never runs out, so that the items that are added don't
+    // depend on how fast this machine is
+    private static final long NO_FRAME_BUDGET = Long.MAX_VALUE / 2;
+
+    // The time before a touch up that the velocity of the touch is computed over
+    private static final int VELOCITY_WINDOW = 100;
+
+    private final SimulatedItems mItems;
+
+    private final ColumnLayout<SimulatedItems.ItemView> mLayout;
+
+    private final FlingIntegrator mFling;
+
+    // Counts the bytes that the replaying thread allocates
+    private final ThreadMXBean mThreadBean;
+
+    // The position where the touch went down, and where it started scrolling
+    private int mTouchDownX;
+
+    private int mTouchDownY;
+
+    private boolean mTouching;
+
+    private boolean mScrolling;
+
+    ScrollTraceReplay(final SimulatedItems items, final ColumnLayout<SimulatedItems.ItemView> layout) {
+        mItems = items;
+        mLayout = layout;
+        mLayout.setFrameBudgetNanos(NO_FRAME_BUDGET);
+        mFling = new FlingIntegrator(layout);
+        mThreadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * Replays the trace from the current position of the list and returns the frames,
+     * including the frames of a fling that goes on after the trace.
+     */
+    public ArrayList<Frame> replay(final ScrollTrace trace) {
+        ArrayList<Frame> frames = new ArrayList<Frame>();
+        if (trace.size() == 0) {
+            return frames;
+        }
+        long threadId = Thread.currentThread().getId();
+        int touchSlop = trace.getTouchSlop();
+        int event = 0;
+        long frameTime = 0;
+        while (event < trace.size() || mFling.isRunning()) {
+            frameTime += FRAME_INTERVAL_NANOS;
+            int frameTimeMillis = (int) (frameTime / 1000000);
+
+            int binds = mItems.getBindCount();
+            int measures = mItems.getMeasureCount();
+            int inflations = mItems.getInflationCount();
+            long allocated = mThreadBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+
+            // the touch events since the last frame are handled before the frame,
+            // and only the last move is drawn
+            boolean moved = false;
+            int moveY = 0;
+            while (event < trace.size() && trace.getTime(event) <= frameTimeMillis) {
+                int x = trace.getX(event);
+                int y = trace.getY(event);
+                switch (trace.getAction(event)) {
+                    case ScrollTrace.ACTION_DOWN:
+                        mFling.stop();
+                        mTouching = true;
+                        mScrolling = false;
+                        mTouchDownX = x;
+                        mTouchDownY = y;
+                        mLayout.startDrag();
+                        break;
+                    case ScrollTrace.ACTION_MOVE:
+                        if (mTouching && !mScrolling && (Math.abs(x - mTouchDownX) >= touchSlop
+                                || Math.abs(y - mTouchDownY) >= touchSlop)) {
+                            mScrolling = true;
+                            mTouchDownX = x;
+                            mTouchDownY = y;
+                        }
+                        if (mScrolling) {
+                            moved = true;
+                            moveY = y;
+                        }
+                        break;
+                    default:
+                        if (moved) {
+                            mLayout.scrollListTo(mLayout.getDragListTop(moveY - mTouchDownY));
+                            moved = false;
+                        }
+                        if (mTouching) {
+                            mFling.start(getTouchVelocity(trace, event), trace.getTime(event) * 1000000L);
+                        }
+                        mTouching = false;
+                        mScrolling = false;
+                        break;
+                }
+                event++;
+            }
+
+            if (moved) {
+                mLayout.scrollListTo(mLayout.getDragListTop(moveY - mTouchDownY));
+            } else if (mFling.isRunning()) {
+                int listTop = mLayout.getListTop();
+                int newListTop = mFling.step(frameTime);
+                if (newListTop != listTop) {
+                    mLayout.scrollListTo(newListTop);
+                } else if (mFling.isRunning()) {
+                    mLayout.fillListWithinBudget();
+                }
+            }
+
+            long workNanos = System.nanoTime() - start;
+            long allocatedBytes = mThreadBean.getThreadAllocatedBytes(threadId) - allocated;
+            Frame frame = new Frame();
+            frame.mWorkNanos = workNanos;
+            frame.mAllocatedBytes = allocatedBytes;
+            frame.mTime = frameTimeMillis;
+            frame.mScrollOffset = mLayout.getScrollOffset();
+            frame.mBindCount = mItems.getBindCount() - binds;
+            frame.mMeasureCount = mItems.getMeasureCount() - measures;
+            frame.mInflationCount = mItems.getInflationCount() - inflations;
+            frame.mSimulatedNanos = frame.mBindCount * BIND_COST_NANOS + frame.mMeasureCount * MEASURE_COST_NANOS
+                    + frame.mInflationCount * INFLATION_COST_NANOS;
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    // Returns the velocity of the touch in pixels per second, over the moves just
+    // before the given touch up, like the velocity tracker of the list
+    private float getTouchVelocity(final ScrollTrace trace, final int up) {
+        int first = up;
+        while (first > 0 && trace.getAction(first - 1) == ScrollTrace.ACTION_MOVE
+                && trace.getTime(up) - trace.getTime(first - 1) <= VELOCITY_WINDOW) {
+            first--;
+        }
+        int duration = trace.getTime(up) - trace.getTime(first);
+        if (duration == 0) {
+            return 0;
+        }
+        return (trace.getY(up) - trace.getY(first)) * 1000f / duration;
+    }
+
+    /**
+     * Makes a trace of a few flings down and one back up, for when there is no
+     * recorded trace at hand.
+     */
+    static ScrollTrace createSampleTrace() {
+        ScrollTrace trace = new ScrollTrace();
+        int time = 0;
+        for (int fling = 0; fling < 6; fling++) {
+            int distance = fling < 5 ? -900 : 1200;
+            int y = distance < 0 ? 1500 : 300;
+            trace.add(ScrollTrace.ACTION_DOWN, time, 540, y);
+            for (int i = 1; i <= 10; i++) {
+                time += 10;
+                trace.add(ScrollTrace.ACTION_MOVE, time, 540, y + distance * i / 10);
+            }
+            trace.add(ScrollTrace.ACTION_UP, time, 540, y + distance);
+            time += 1500;
+        }
+        return trace;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        ScrollTrace trace;
+        if (args.length > 0) {
+            InputStream in = new FileInputStream(args[0]);
+            try {
+                trace = ScrollTrace.readFrom(in);
+            } finally {
+                in.close();
+            }
+        } else {
+            trace = createSampleTrace();
+        }
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int itemCount = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        Random random = new Random(42);
+        int[] itemHeights = new int[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            itemHeights[i] = 200 + random.nextInt(800);
+        }
+        SimulatedItems items = new SimulatedItems(itemHeights);
+        ColumnLayout<SimulatedItems.ItemView> layout = items.createLayout(columns, 1080, 1920, 16);
+        layout.layoutFromPosition(0, 0);
+
+        ArrayList<Frame> frames = new ScrollTraceReplay(items, layout).replay(trace);
+        print(frames, System.out);
+    }
+
+    static void print(final ArrayList<Frame> frames, final PrintStream out) {
+        out.println("frame,time_ms,scroll_offset,binds,measures,inflations,allocated_bytes,work_us,simulated_ms");
+        int jankyFrames = 0;
+        long maxSimulatedNanos = 0;
+        int binds = 0;
+        int measures = 0;
+        int inflations = 0;
+        long allocatedBytes = 0;
+        for (int i = 0; i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            out.println(i + "," + frame.mTime + "," + frame.mScrollOffset + "," + frame.mBindCount + ","
+                    + frame.mMeasureCount + "," + frame.mInflationCount + "," + frame.mAllocatedBytes + ","
+                    + frame.mWorkNanos / 1000 + "," + frame.mSimulatedNanos / 1000000f);
+            if (frame.mSimulatedNanos > FRAME_INTERVAL_NANOS) {
+                jankyFrames++;
+            }
+            maxSimulatedNanos = Math.max(maxSimulatedNanos, frame.mSimulatedNanos);
+            binds += frame.mBindCount;
+            measures += frame.mMeasureCount;
+            inflations += frame.mInflationCount;
+            allocatedBytes += frame.mAllocatedBytes;
+        }
+        out.println();
+        out.println("frames: " + frames.size() + ", janky: " + jankyFrames + ", slowest simulated: "
+                + maxSimulatedNanos / 1000000f + " ms, binds: " + binds + ", measures: " + measures + ", inflations: "
+                + inflations + ", allocated: " + allocatedBytes + " bytes");
+    }
+}
@@ -0,0 +1,174 @@
+package com.jayway.columnlist;
+
+/**
+ * Stands in for the adapter and the item views of a {@link ColumnListView} so that
+ * its {@link ColumnLayout} can be run on a plain JVM. The adapter is an array of
+ * item heights, and an item view only remembers what it was bound to and measured
+ * with. Binding a view requests a layout, like a view whose content is set, so a
+ * view is only measured when the list would measure it.
+ */
+class SimulatedItems implements ColumnLayout.Host<SimulatedItems.ItemView> {
+
+    // Stands in for the view of an item
+    static class ItemView {
+
+        // The position that the view is bound to
+        int mPosition;
+
+        // The width that the view was measured with
+        int mMeasuredWidth;
+
+        // The height that the view was measured to
+        int mMeasuredHeight;
+
+        // True if the view has been bound since it was last measured
+        boolean mLayoutRequested;
+    }
+
+    // The heights of the items, which stands in for the adapter
+    private int[] mItemHeights;
+
+    // The number of views that were created because there was none to reuse
+    private int mInflationCount;
+
+    // The number of times a view was bound to an item
+    private int mBindCount;
+
+    // The number of times a view was measured
+    private int mMeasureCount;
+
+    SimulatedItems(final int[] itemHeights) {
+        mItemHeights = itemHeights;
+    }
+
+    /**
+     * Creates a layout of the items with the given number of columns, which fills a
+     * list of the given size, and whose column width follows from the width like in
+     * the list.
+     */
+    public ColumnLayout<ItemView> createLayout(final int numberOfColumns, final int width, final int height,
+                                               final int padding) {
+        ColumnLayout<ItemView> layout = new ColumnLayout<ItemView>(this, numberOfColumns, padding);
+        layout.getRecycleBin().setViewTypeCount(1);
+        layout.setColumnDimensions((width - (numberOfColumns + 1) * padding) / numberOfColumns, 0);
+        layout.setSize(height, 0, 0);
+        return layout;
+    }
+
+    /**
+     * Replaces the items, like a data change.
+     */
+    public void setItemHeights(final int[] itemHeights) {
+        mItemHeights = itemHeights;
+    }
+
+    public int[] getItemHeights() {
+        return mItemHeights;
+    }
+
+    public int getInflationCount() {
+        return mInflationCount;
+    }
+
+    public int getBindCount() {
+        return mBindCount;
+    }
+
+    public int getMeasureCount() {
+        return mMeasureCount;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItemHeights.length;
+    }
+
+    @Override
+    public int getItemViewType(final int position) {
+        return 0;
+    }
+
+    @Override
+    public long getItemId(final int position) {
+        return position;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return false;
+    }
+
+    @Override
+    public boolean hasItemHeights() {
+        return false;
+    }
+
+    @Override
+    public int getItemHeight(final int position, final int columnWidth) {
+        // like an adapter that doesn't know its heights, so the items are measured
+        return UNKNOWN_HEIGHT;
+    }
+
+    @Override
+    public ItemView getView(final int position, final int viewType, final ItemView convertView) {
+        ItemView view = convertView;
+        if (view == null) {
+            view = new ItemView();
+            mInflationCount++;
+        }
+        view.mPosition = position;
+        view.mLayoutRequested = true;
+        mBindCount++;
+        return view;
+    }
+
+    @Override
+    public void updateItemState(final ItemView view, final int position) {
+        // there is no check state
+    }
+
+    @Override
+    public void addView(final ItemView view) {
+        // there is no view hierarchy
+    }
+
+    @Override
+    public void removeView(final ItemView view) {
+        // there is no view hierarchy
+    }
+
+    @Override
+    public boolean needsMeasure(final ItemView view, final int width) {
+        return view.mLayoutRequested || view.mMeasuredWidth != width;
+    }
+
+    @Override
+    public int measure(final ItemView view, final int width, final int knownHeight) {
+        view.mMeasuredWidth = width;
+        // a view measured at exactly its known height gets that height
+        view.mMeasuredHeight = knownHeight != UNKNOWN_HEIGHT ? knownHeight : mItemHeights[view.mPosition];
+        view.mLayoutRequested = false;
+        mMeasureCount++;
+        return view.mMeasuredHeight;
+    }
+
+    @Override
+    public int getMeasuredHeight(final ItemView view) {
+        return view.mMeasuredHeight;
+    }
+
+    @Override
+    public void layout(final ItemView view, final int left, final int top, final int right, final int bottom) {
+        // the layout keeps the bounds of the items
+    }
+
+    @Override
+    public void offsetTopAndBottom(final ItemView view, final int offset) {
+        // the layout keeps the bounds of the items
+    }
+
+    @Override
+    public void scrollTo(final int scrollY) {
+        // the list is not drawn
+    }
+}
@@ -0,0 +1,149 @@
+package com.jayway.columnlist;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that scrolling and flinging the {@link ColumnLayout} of the list allocates
+ * nothing once the items it scrolls over have been seen, so that the garbage
+ * collector never has a reason to run while the list moves. The allocations are
+ * counted per thread by the JVM, so anything the layout allocates is caught, not
+ * only the objects of its own classes.
+ * <p/>
+ * Only the layout and the fling integrator are run here, with the simulated items
+ * of the benchmarks as host. The part of the list that only runs on a device is not
+ * covered: the host of the view that adds, measures and lays out real views, the
+ * recycle bin holding real views, and the fling runnable with its Choreographer
+ * callbacks. Those have to be checked with the allocation tracker on a device.
+ */
+public class ColumnLayoutAllocationTest {
+
+    private static final int ITEM_COUNT = 2000;
+
+    // The distance the list is scrolled per frame, and the number of frames
+    private static final int SCROLL_DISTANCE = 40;
+
+    private static final int SCROLL_FRAMES = 500;
+
+    // The velocity of a fling, in pixels per second
+    private static final float FLING_VELOCITY = 6000;
+
+    // The time between frames
+    private static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    // The most frames a fling may take before it counts as stuck
+    private static final int MAX_FLING_FRAMES = 1000;
+
+    // The number of times the scrolls are run before allocations are counted
+    private static final int WARM_UP_ROUNDS = 3;
+
+    // The number of times the scrolls are run while allocations are counted. The JVM
+    // may allocate on the thread now and then while it compiles the code, so the
+    // round that allocated the least counts, which is still more than zero if the
+    // layout allocates on every round
+    private static final int MEASURED_ROUNDS = 3;
+
+    private final ThreadMXBean mThreadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private ColumnLayout<SimulatedItems.ItemView> mLayout;
+
+    private FlingIntegrator mFling;
+
+    // The time of the last fling frame
+    private long mFrameTime;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        int[] itemHeights = new int[ITEM_COUNT];
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            itemHeights[i] = 200 + random.nextInt(800);
+        }
+        mLayout = new SimulatedItems(itemHeights).createLayout(2, 1080, 1920, 16);
+        // fill the whole list every frame, so that every round adds the same items
+        mLayout.setFrameBudgetNanos(Long.MAX_VALUE / 2);
+        mLayout.layoutFromPosition(0, 0);
+        mFling = new FlingIntegrator(mLayout);
+    }
+
+    @Test
+    public void scrollDoesNotAllocate() {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            scrollDownAndUp();
+        }
+
+        long allocatedBytes = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long allocated = getAllocatedBytes();
+            scrollDownAndUp();
+            allocatedBytes = Math.min(allocatedBytes, getAllocatedBytes() - allocated - getMeasuringOverhead());
+        }
+
+        assertEquals("bytes allocated while scrolling", 0, allocatedBytes);
+    }
+
+    @Test
+    public void flingDoesNotAllocate() {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            flingDownAndUp();
+        }
+
+        long allocatedBytes = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long allocated = getAllocatedBytes();
+            flingDownAndUp();
+            allocatedBytes = Math.min(allocatedBytes, getAllocatedBytes() - allocated - getMeasuringOverhead());
+        }
+
+        assertEquals("bytes allocated while flinging", 0, allocatedBytes);
+    }
+
+    private void scrollDownAndUp() {
+        for (int i = 0; i < SCROLL_FRAMES; i++) {
+            mLayout.scrollListTo(mLayout.getListTop() - SCROLL_DISTANCE);
+        }
+        for (int i = 0; i < SCROLL_FRAMES; i++) {
+            mLayout.scrollListTo(mLayout.getListTop() + SCROLL_DISTANCE);
+        }
+    }
+
+    // Flings towards the later positions, and then back until the list snaps to its top
+    private void flingDownAndUp() {
+        fling(-FLING_VELOCITY);
+        fling(FLING_VELOCITY * 2);
+    }
+
+    // Runs a fling like the fling runnable of the list does, one frame at a time
+    private void fling(final float velocity) {
+        mFling.start(velocity, mFrameTime);
+        for (int i = 0; i < MAX_FLING_FRAMES && mFling.isRunning(); i++) {
+            mFrameTime += FRAME_INTERVAL_NANOS;
+            int listTop = mLayout.getListTop();
+            int newListTop = mFling.step(mFrameTime);
+            if (newListTop != listTop) {
+                mLayout.scrollListTo(newListTop);
+            } else if (mFling.isRunning()) {
+                mLayout.fillListWithinBudget();
+            }
+        }
+        assertFalse("fling still running", mFling.isRunning());
+    }
+
+    private long getAllocatedBytes() {
+        return mThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Returns the bytes that reading the allocated bytes allocates itself, if any
+    private long getMeasuringOverhead() {
+        long allocated = getAllocatedBytes();
+        return getAllocatedBytes() - allocated;
+    }
+}